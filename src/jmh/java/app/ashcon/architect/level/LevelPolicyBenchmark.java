@@ -0,0 +1,114 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.level.type.Flag;
+import app.ashcon.architect.level.type.Role;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.entity.Player;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Proxy;
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Compares the checks of {@link LevelListener} through a compiled {@link LevelPolicy}
+ * against resolving flags and roles from the {@link Level} on every event,
+ * with the same lambdas and streams that the listener used to allocate.
+ *
+ * Players are dynamic proxies, so the permission checks of the
+ * legacy path also box their arguments, like a real lookup allocates.
+ * Run with the allocation profiler to compare allocation: {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LevelPolicyBenchmark {
+
+    private Level level;
+    private Player player;
+
+    @Setup
+    public void setup() {
+        if(Bukkit.getServer() == null) {
+            Bukkit.setServer(proxy(Server.class, null));
+        }
+        player = proxy(Player.class, UUID.randomUUID());
+        level = new Level("benchmark", "Benchmark", UUID.randomUUID().toString());
+        level.getRoles().put(player.getUniqueId().toString(), Role.EDITOR);
+        level.setFlags(EnumSet.of(Flag.PHYSICS));
+        level.getPolicy().track(player);
+    }
+
+    @Benchmark
+    public boolean legacyFlag() {
+        return legacy(Flag.PHYSICS);
+    }
+
+    @Benchmark
+    public boolean policyFlag() {
+        return level.getPolicy().allows(Flag.PHYSICS);
+    }
+
+    @Benchmark
+    public boolean legacyRole() {
+        return legacy(lvl -> lvl.hasRole(Role.EDITOR, player));
+    }
+
+    @Benchmark
+    public boolean policyRole() {
+        return level.getPolicy().allows(player, Role.EDITOR);
+    }
+
+    private boolean legacy(Flag... flags) {
+        return legacy(lvl -> flags.length == 0 || Stream.of(flags).anyMatch(lvl::hasFlag));
+    }
+
+    private boolean legacy(Predicate<Level> predicate) {
+        return !level.isLocked() && predicate.test(level);
+    }
+
+    /**
+     * Create a stub that only answers the methods the checks call,
+     * returning the default of every other method.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, UUID id) {
+        final Logger logger = Logger.getLogger("benchmark");
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch(method.getName()) {
+                case "getUniqueId":     return id;
+                case "getLogger":       return logger;
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion": return "benchmark";
+                case "hashCode":        return System.identityHashCode(self);
+                case "equals":          return self == args[0];
+            }
+            final Class<?> result = method.getReturnType();
+            if(result == boolean.class) return false;
+            if(result == int.class) return 0;
+            if(result == long.class) return 0L;
+            if(result == double.class) return 0d;
+            if(result == float.class) return 0f;
+            return null;
+        });
+    }
+
+}
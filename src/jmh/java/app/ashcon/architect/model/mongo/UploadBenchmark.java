@@ -0,0 +1,111 @@
+package app.ashcon.architect.model.mongo;
+
+import app.ashcon.architect.util.Hashes;
+import app.ashcon.architect.util.Region;
+import app.ashcon.architect.util.Worlds;
+import app.ashcon.architect.util.compression.Compression;
+import app.ashcon.architect.util.compression.Compressions;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares hashing and compressing the files of a world one after another
+ * against spreading them over a {@link ForkJoinPool}, like {@link MongoLevelStore#upload}.
+ *
+ * Files are prepared the same way as an upload, with regions packed and every other
+ * file compressed, but written to a null stream so only the work before the network counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"4", "16"})
+    public int regions;
+
+    @Param({"256"})
+    public int chunks;
+
+    private File folder;
+    private List<Path> paths;
+    private ForkJoinPool workers;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Worlds.create(regions, chunks, 42);
+        try(Stream<Path> walk = Files.walk(folder.toPath())) {
+            paths = walk.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+        workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown
+    public void teardown() throws IOException {
+        workers.shutdown();
+        FileUtils.deleteDirectory(folder);
+    }
+
+    @Benchmark
+    public List<String> serial() {
+        return paths.stream()
+                    .map(UploadBenchmark::prepare)
+                    .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public List<String> parallel() throws InterruptedException, ExecutionException {
+        return workers.submit(() -> paths.parallelStream()
+                                         .map(UploadBenchmark::prepare)
+                                         .collect(Collectors.toList())).get();
+    }
+
+    /**
+     * Hash and compress a file, like it is before its blob is written.
+     */
+    private static String prepare(Path path) {
+        final File file = path.toFile();
+        try {
+            final byte[] region = Region.isRegion(file) ? Region.pack(file) : null;
+            if(region != null) {
+                ByteStreams.nullOutputStream().write(region);
+                return Hashes.FUNCTION.hashBytes(region).toString();
+            }
+            final Compression compression = Compressions.DEFLATE;
+            try(OutputStream out = compression.compress(ByteStreams.nullOutputStream())) {
+                Files.copy(path, out);
+            }
+            return Hashes.hash(file);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+}
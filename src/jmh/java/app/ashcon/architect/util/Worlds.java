@@ -0,0 +1,104 @@
+package app.ashcon.architect.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Utility to generate synthetic world folders for benchmarks,
+ * with the same kinds of files as a saved level.
+ */
+public interface Worlds {
+
+    /**
+     * Create a world folder with region files of deflated chunks,
+     * and the smaller data files that a world saves next to them.
+     *
+     * @param regions The number of region files.
+     * @param chunks The number of occupied chunks in each region.
+     * @param seed The seed of the generated contents.
+     * @return The world folder, which must be deleted by the caller.
+     * @throws IOException If the folder could not be written.
+     */
+    static File create(int regions, int chunks, long seed) throws IOException {
+        final Random random = new Random(seed);
+        final File folder = Files.createTempDirectory("architect-world").toFile();
+        for(int i = 0; i < regions; i++) {
+            try(OutputStream out = new FileOutputStream(file(folder, "region/r." + i + ".0.mca"))) {
+                Region.unpack(new ByteArrayInputStream(region(chunks, random)), out);
+            }
+        }
+        write(file(folder, "level.dat"), gzip(data(8 * 1024, random)));
+        write(file(folder, "data/villages.dat"), gzip(data(32 * 1024, random)));
+        write(file(folder, "playerdata/" + new UUID(random.nextLong(), random.nextLong()) + ".dat"), gzip(data(4 * 1024, random)));
+        write(file(folder, "session.lock"), new byte[8]);
+        return folder;
+    }
+
+    /**
+     * Generate bytes that compress like chunk sections, which are
+     * long runs of the same few blocks with some noise.
+     *
+     * @param size The number of bytes.
+     * @param random The source of randomness.
+     * @return The generated bytes.
+     */
+    static byte[] data(int size, Random random) {
+        final byte[] data = new byte[size];
+        int i = 0;
+        while(i < size) {
+            final int run = Math.min(size - i, 1 + random.nextInt(64));
+            final byte block = (byte) random.nextInt(16);
+            for(int j = 0; j < run; j++) {
+                data[i++] = random.nextInt(8) == 0 ? (byte) random.nextInt() : block;
+            }
+        }
+        return data;
+    }
+
+    static byte[] region(int chunks, Random random) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(Math.min(chunks, Region.CHUNKS));
+        for(int i = 0; i < Math.min(chunks, Region.CHUNKS); i++) {
+            final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+            chunk.write(2); // Zlib, like Minecraft writes chunks
+            try(OutputStream deflater = new DeflaterOutputStream(chunk)) {
+                deflater.write(data(16 * 1024, random));
+            }
+            out.writeShort(i);
+            out.writeInt(random.nextInt());
+            out.writeInt(chunk.size());
+            chunk.writeTo(out);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    static File file(File folder, String path) {
+        final File file = new File(folder, path);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    static void write(File file, byte[] data) throws IOException {
+        Files.write(file.toPath(), data);
+    }
+
+}
@@ -0,0 +1,82 @@
+package app.ashcon.architect.util.compression;
+
+import app.ashcon.architect.util.Worlds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of each {@link Compression} over world data,
+ * compressing and decompressing one megabyte per operation.
+ *
+ * The compressed size of each compression is printed during setup,
+ * since a faster compression is only worth it if blobs stay small.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompressionBenchmark {
+
+    private static final int SIZE = 1024 * 1024;
+
+    @Param({"none", "deflate", "deflate-fast", "deflate-best", "lz4"})
+    public String name;
+
+    private Compression compression;
+    private byte[] data;
+    private byte[] compressed;
+    private ByteArrayOutputStream buffer;
+    private byte[] chunk;
+
+    @Setup
+    public void setup() throws IOException {
+        compression = Compressions.find(name).orElseThrow(() -> new IllegalArgumentException("Unknown compression " + name));
+        data = Worlds.data(SIZE, new Random(42));
+        buffer = new ByteArrayOutputStream(SIZE);
+        chunk = new byte[8192];
+        compressed = compress();
+        System.out.printf("%n%s compresses %d bytes into %d bytes, a ratio of %.3f%n",
+                          name, data.length, compressed.length, (double) compressed.length / data.length);
+    }
+
+    @Benchmark
+    public byte[] compress() throws IOException {
+        buffer.reset();
+        try(OutputStream out = compression.compress(buffer)) {
+            out.write(data);
+        }
+        return buffer.toByteArray();
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        long read = 0;
+        try(InputStream in = compression.decompress(new ByteArrayInputStream(compressed))) {
+            int length;
+            while((length = in.read(chunk)) != -1) {
+                read += length;
+            }
+        }
+        return read;
+    }
+
+}
@@ -0,0 +1,92 @@
+package app.ashcon.architect.util.conversion;
+
+import app.ashcon.architect.level.Level;
+import app.ashcon.architect.level.type.Flag;
+import app.ashcon.architect.level.type.Role;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.EnumSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares converting a {@link Level} with its BSON codec against the
+ * JSON round-trip through Gson that the original conversion used,
+ * without the debug output it printed for every document.
+ *
+ * Decoding is measured from a raw document, like the ones read from
+ * the wire, and from a parsed document. Run with the allocation
+ * profiler to compare allocation per document: {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    @Param({"1", "50"})
+    public int members;
+
+    private Gson gson;
+    private CodecConversion<Level> conversion;
+    private Level level;
+    private Document document;
+    private RawBsonDocument raw;
+
+    @Setup
+    public void setup() {
+        final CodecRegistry registry = Codecs.registry();
+        gson = new GsonBuilder().create();
+        conversion = new CodecConversion<>(Level.class, registry);
+        level = new Level("benchmark", "Benchmark", UUID.randomUUID().toString());
+        for(int i = 1; i < members; i++) {
+            level.getRoles().put(UUID.randomUUID().toString(), i % 2 == 0 ? Role.EDITOR : Role.VIEWER);
+        }
+        level.setFlags(EnumSet.of(Flag.PHYSICS, Flag.WEATHER, Flag.WORLD));
+        document = conversion.toDocument(level);
+        raw = new RawBsonDocument(level, registry.get(Level.class));
+    }
+
+    @Benchmark
+    public Level gsonDecode() {
+        return gson.fromJson(document.toJson(), Level.class);
+    }
+
+    @Benchmark
+    public Level codecDecode() {
+        return conversion.toObject(document);
+    }
+
+    @Benchmark
+    public Level codecDecodeRaw() {
+        return conversion.toObject(raw);
+    }
+
+    @Benchmark
+    public Document gsonEncode() {
+        return Document.parse(gson.toJson(level));
+    }
+
+    @Benchmark
+    public Document codecEncode() {
+        return conversion.toDocument(level);
+    }
+
+}
@@ -7,6 +7,7 @@ import app.ashcon.architect.level.type.Action;
 import app.ashcon.architect.level.type.Flag;
 import app.ashcon.architect.level.type.Role;
 import app.ashcon.architect.level.type.Status;
+import app.ashcon.architect.model.ModelStore;
 import app.ashcon.intake.bukkit.BukkitIntake;
 import app.ashcon.intake.parametric.AbstractModule;
 import app.ashcon.intake.parametric.provider.EnumProvider;
@@ -21,7 +22,7 @@ public class ArchitectApp extends JavaPlugin {
     @Override
     public void onLoad() {
         super.onLoad();
-        component = DaggerArchitectComponent.create();
+        component = DaggerArchitectComponent.builder().plugin(this).build();
         new BukkitIntake(this, graph -> {
             graph.getBuilder().getInjector().install(new AbstractModule() {
                 @Override
@@ -43,8 +44,36 @@ public class ArchitectApp extends JavaPlugin {
     public void onEnable() {
         super.onEnable();
         final PluginManager pluginManager = getServer().getPluginManager();
+        pluginManager.registerEvents(component.levelIndex(), this);
         pluginManager.registerEvents(component.levelListener(), this);
+        pluginManager.registerEvents(component.levelStreamer(), this);
+        pluginManager.registerEvents(component.levelSaver(), this);
         pluginManager.registerEvents(component.userListener(), this);
+        component.levelIndex().start();
+        component.levelUploader().recover();
+        component.levelReserve().start();
+    }
+
+    @Override
+    public void onDisable() {
+        super.onDisable();
+        component.levelReserve().drain();
+        component.levelSaver().shutdown();
+        component.levelPool().drain();
+        component.levelLoader().shutdown();
+        component.levelStreamer().shutdown();
+        component.levelUploader().shutdown();
+        flush(component.levelStore());
+        flush(component.userStore());
+        component.mongoWatcher().shutdown();
+    }
+
+    private void flush(ModelStore<?> store) {
+        try {
+            store.flush();
+        } catch(IllegalStateException error) {
+            getLogger().log(java.util.logging.Level.SEVERE, "Buffered updates were lost", error);
+        }
     }
 
 }
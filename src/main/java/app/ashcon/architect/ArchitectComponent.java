@@ -1,12 +1,24 @@
 package app.ashcon.architect;
 
+import app.ashcon.architect.level.LevelIndex;
 import app.ashcon.architect.level.LevelListener;
+import app.ashcon.architect.level.LevelLoader;
+import app.ashcon.architect.level.LevelPool;
+import app.ashcon.architect.level.LevelReserve;
+import app.ashcon.architect.level.LevelSaver;
+import app.ashcon.architect.level.LevelStore;
+import app.ashcon.architect.level.LevelStreamer;
+import app.ashcon.architect.level.LevelUploader;
 import app.ashcon.architect.level.command.LevelCommands;
 import app.ashcon.architect.level.command.provider.LevelCurrentProvider;
 import app.ashcon.architect.level.command.provider.LevelNamedProvider;
 import app.ashcon.architect.model.mongo.MongoModule;
+import app.ashcon.architect.model.mongo.MongoWatcher;
 import app.ashcon.architect.user.UserListener;
+import app.ashcon.architect.user.UserStore;
+import dagger.BindsInstance;
 import dagger.Component;
+import org.bukkit.plugin.Plugin;
 
 import javax.inject.Singleton;
 
@@ -14,8 +26,24 @@ import javax.inject.Singleton;
 @Component(modules = {ArchitectModule.class, MongoModule.class})
 interface ArchitectComponent {
 
+    LevelIndex levelIndex();
+
     LevelListener levelListener();
 
+    LevelLoader levelLoader();
+
+    LevelPool levelPool();
+
+    LevelReserve levelReserve();
+
+    LevelSaver levelSaver();
+
+    LevelStreamer levelStreamer();
+
+    LevelUploader levelUploader();
+
+    LevelStore levelStore();
+
     LevelCommands levelCommands();
 
     LevelNamedProvider levelNamedProvider();
@@ -24,4 +52,18 @@ interface ArchitectComponent {
 
     UserListener userListener();
 
+    UserStore userStore();
+
+    MongoWatcher mongoWatcher();
+
+    @Component.Builder
+    interface Builder {
+
+        @BindsInstance
+        Builder plugin(Plugin plugin);
+
+        ArchitectComponent build();
+
+    }
+
 }
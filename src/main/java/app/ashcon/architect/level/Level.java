@@ -16,7 +16,9 @@ import org.bukkit.util.Vector;
 import javax.annotation.Nullable;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Represents a player-defined game level.
@@ -31,6 +33,11 @@ public class Level implements Model {
     private @SerializedName("flags")   EnumSet<Flag> flags;
     private @SerializedName("locked")  Boolean locked;
     private @SerializedName("default") Boolean def;
+    private @SerializedName("template") Boolean template;
+    private @SerializedName("source")  String source;
+    private @SerializedName("version") Long version;
+    private transient volatile LevelPolicy policy;
+    private transient Set<String> changes;
 
     public Level(String id,
                  String name,
@@ -51,7 +58,11 @@ public class Level implements Model {
     }
 
     public Level(String name, String playerId) {
-        this(Long.toString(System.nanoTime()), name, null, null, null, null, null, null);
+        this(Long.toString(System.nanoTime()), name, playerId);
+    }
+
+    public Level(String id, String name, String playerId) {
+        this(id, name, null, null, null, null, null, null);
         getRoles().put(playerId, Role.OWNER);
     }
 
@@ -83,13 +94,71 @@ public class Level implements Model {
         commit("name");
     }
 
+    @Override
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
-     * Commit the current {@link Level} to the database.
+     * Mark fields of the current {@link Level} as changed, so the next
+     * update to the database only sends those fields.
      *
      * @param fields The fields that changed.
      */
     public synchronized void commit(String... fields) {
-        // TODO(ashcon): Instead of sending full update, send partial update
+        for(String field : fields) {
+            if(changes != null) {
+                changes.add(field);
+                if(field.startsWith("roles")) {
+                    changes.add("members"); // Stored from the roles, so it must be updated with them
+                }
+            }
+            final int dot = field.indexOf('.');
+            switch(dot < 0 ? field : field.substring(0, dot)) {
+                case "status":
+                case "roles":
+                case "flags":
+                case "locked":
+                case "default":
+                    policy = null;
+            }
+        }
+    }
+
+    @Override
+    public synchronized @Nullable Set<String> popChanges() {
+        final Set<String> changed = changes;
+        changes = new HashSet<>();
+        return changed;
+    }
+
+    @Override
+    public synchronized void restoreChanges(@Nullable Set<String> changed) {
+        if(changed == null) {
+            changes = null;
+        } else if(changes != null) {
+            changes.addAll(changed);
+        }
+    }
+
+    /**
+     * Get the compiled {@link LevelPolicy} of the level, which is
+     * only rebuilt when its status, roles, flags or lock state change.
+     * The roles of players are also refreshed by the {@link LevelIndex}.
+     *
+     * @return The current policy.
+     */
+    public LevelPolicy getPolicy() {
+        LevelPolicy current = policy;
+        if(current == null) {
+            policy = current = LevelPolicy.compile(this);
+        }
+        return current;
     }
 
     /**
@@ -174,6 +243,45 @@ public class Level implements Model {
         commit("default");
     }
 
+    /**
+     * Get whether the level is a template, which any
+     * viewer can create new levels from.
+     *
+     * @return Whether the level is a template.
+     */
+    public boolean isTemplate() {
+        return template != null && template;
+    }
+
+    /**
+     * Set whether the level is a template.
+     *
+     * @param template Whether the level should be a template.
+     */
+    public void setTemplate(Boolean template) {
+        this.template = template != null && template ? template : null;
+        commit("template");
+    }
+
+    /**
+     * Get the ID of the template that the level was created from.
+     *
+     * @return The ID of the template, or null if it was created blank.
+     */
+    public @Nullable String getSource() {
+        return source;
+    }
+
+    /**
+     * Set the ID of the template that the level was created from.
+     *
+     * @param source The ID of the template.
+     */
+    public void setSource(@Nullable String source) {
+        this.source = source;
+        commit("source");
+    }
+
     /**
      * Get the status of the level.
      *
@@ -297,8 +405,9 @@ public class Level implements Model {
         }
         if(getRoles().isEmpty()) {
             setRoles(null);
+        } else {
+            commit("roles." + playerId);
         }
-        commit("roles");
     }
 
     /**
@@ -404,6 +513,7 @@ public class Level implements Model {
                + ", loaded=" + isLoaded()
                + ", locked=" + isLocked()
                + ", default=" + isDefault()
+               + ", version=" + getVersion()
                + ", spawn=" + getSpawn()
                + ", visibility=" + getStatus()
                + ", roles=" + getRoles() + "}";
@@ -0,0 +1,228 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Folders;
+import app.ashcon.architect.util.Settings;
+import org.apache.commons.io.FileUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the {@link World} folders of {@link Level}s on disk after they
+ * are unloaded, so they can be loaded again without downloading them.
+ *
+ * Each folder is marked with the remote revision it matches, and the least
+ * recently used folders are deleted once the cache exceeds its disk budget.
+ */
+@Singleton
+public class LevelCache {
+
+    private final File container;
+    private final File markers;
+    private final long budget;
+    private final Map<String, Integer> active;
+
+    @Inject LevelCache() {
+        this.container = Bukkit.getWorldContainer();
+        this.markers = new File(container, ".architect" + File.separator + "cache");
+        this.budget = Settings.fetchLong("architect.cache.size", 4096) * 1024 * 1024;
+        this.active = new ConcurrentHashMap<>();
+        this.markers.mkdirs();
+    }
+
+    /**
+     * Get the local folder of a level.
+     *
+     * @param id The ID of the level.
+     * @return The local folder.
+     */
+    public File getFolder(String id) {
+        return new File(container, id);
+    }
+
+    /**
+     * Check whether the local folder of a level matches a remote revision.
+     *
+     * @param id The ID of the level.
+     * @param revision The remote revision.
+     * @return Whether the local folder can be used instead of downloading.
+     */
+    public synchronized boolean isFresh(String id, String revision) {
+        final File marker = new File(markers, id);
+        if(!marker.isFile() || !getFolder(id).isDirectory()) {
+            return false;
+        }
+        try {
+            final List<String> lines = Files.readAllLines(marker.toPath(), StandardCharsets.UTF_8);
+            if(lines.isEmpty() || !lines.get(0).equals(revision)) {
+                return false;
+            }
+        } catch(IOException ioe) {
+            return false;
+        }
+        marker.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Mark the local folder of a level as matching a remote revision,
+     * then evict other folders if the cache is over budget.
+     *
+     * @param id The ID of the level.
+     * @param revision The remote revision.
+     */
+    public synchronized void mark(String id, String revision) {
+        final long size = FileUtils.sizeOfDirectory(getFolder(id));
+        try {
+            Files.write(new File(markers, id).toPath(), Arrays.asList(revision, Long.toString(size)), StandardCharsets.UTF_8);
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return;
+        }
+        evict();
+    }
+
+    /**
+     * Copy the local folder of a template into the local folder of a level
+     * that was created from it, instead of downloading the same files.
+     *
+     * The template must not be in use, so its folder matches its remote revision,
+     * and the unique ID of its world is not copied.
+     *
+     * @see LevelManifest#isShared(String)
+     * @param template The ID of the template.
+     * @param revision The remote revision of the template.
+     * @param id The ID of the level.
+     * @return Whether the folder was copied.
+     */
+    public synchronized boolean copy(String template, String revision, String id) {
+        if(active.containsKey(template) || !isFresh(template, revision)) return false;
+        final File folder = getFolder(id);
+        final File staging = Folders.staging(folder);
+        try {
+            Folders.recover(folder);
+            FileUtils.deleteDirectory(staging);
+            Folders.snapshot(getFolder(template), staging, null);
+            new File(staging, "uid.dat").delete();
+            Folders.swap(folder);
+            return true;
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return false;
+        } finally {
+            FileUtils.deleteQuietly(staging);
+        }
+    }
+
+    /**
+     * Mark the local folder of a level as not matching any remote revision,
+     * typically because it is about to change.
+     *
+     * The folder stays in the cache with an unknown size, which is measured
+     * once it is no longer in use, so it can still be counted and evicted.
+     *
+     * @param id The ID of the level.
+     */
+    public synchronized void invalidate(String id) {
+        try {
+            Files.write(new File(markers, id).toPath(), Arrays.asList("", ""), StandardCharsets.UTF_8);
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Prevent the local folder of a level from being evicted,
+     * because it is being downloaded, loaded or uploaded.
+     *
+     * Each call must be paired with a call to {@link #unpin(String)}.
+     *
+     * @param id The ID of the level.
+     */
+    public void pin(String id) {
+        active.merge(id, 1, Integer::sum);
+    }
+
+    /**
+     * Allow the local folder of a level to be evicted again.
+     *
+     * @param id The ID of the level.
+     */
+    public void unpin(String id) {
+        active.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Delete the least recently used folders until the cache is within its budget.
+     *
+     * Folders that were invalidated are measured once they are no longer
+     * in use, since their size changed after they were marked.
+     */
+    public synchronized void evict() {
+        final File[] files = markers.listFiles();
+        if(files == null) return;
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified).reversed());
+        long used = 0;
+        for(File marker : files) {
+            final String id = marker.getName();
+            final File folder = getFolder(id);
+            final boolean pinned = active.containsKey(id);
+            if(!folder.isDirectory()) {
+                if(!pinned) marker.delete();
+                continue;
+            }
+            long size = size(marker);
+            if(size < 0) {
+                if(pinned) continue;
+                size = measure(marker, folder);
+            }
+            used += size;
+            if(used > budget && !pinned) {
+                try {
+                    FileUtils.deleteDirectory(folder);
+                    marker.delete();
+                    used -= size;
+                } catch(IOException ioe) {
+                    ioe.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Measure the size of an invalidated folder and remember it in its marker,
+     * without changing when the folder was last used.
+     */
+    private static long measure(File marker, File folder) {
+        final long size = FileUtils.sizeOfDirectory(folder);
+        final long modified = marker.lastModified();
+        try {
+            Files.write(marker.toPath(), Arrays.asList("", Long.toString(size)), StandardCharsets.UTF_8);
+            marker.setLastModified(modified);
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return size;
+    }
+
+    private static long size(File marker) {
+        try {
+            final List<String> lines = Files.readAllLines(marker.toPath(), StandardCharsets.UTF_8);
+            return lines.size() < 2 || lines.get(1).isEmpty() ? -1 : Long.parseLong(lines.get(1));
+        } catch(IOException | NumberFormatException error) {
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.Physical;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves loaded {@link World}s to their {@link Level}s
+ * without querying the {@link LevelStore}.
+ *
+ * Worlds that are not levels are also indexed, so each
+ * world is only ever looked up once while it is loaded.
+ * Indexed levels are watched, so changes made by other
+ * servers are applied to them.
+ *
+ * The roles of players in loaded levels are refreshed at a fixed rate,
+ * since there is no event for changes to operator status or permissions.
+ */
+@Singleton
+public class LevelIndex implements Listener {
+
+    private final LevelStore levelStore;
+    private final Plugin plugin;
+    private final long period;
+    private final Map<String, Optional<Level>> levels;
+    private BukkitTask task;
+
+    @Inject LevelIndex(LevelStore levelStore, Plugin plugin) {
+        this.levelStore = levelStore;
+        this.plugin = plugin;
+        this.period = Settings.fetchLong("architect.roles.period", 100);
+        this.levels = new ConcurrentHashMap<>();
+        this.levelStore.subscribe((id, level) -> levels.computeIfPresent(id, (key, old) -> {
+            if(level != null && old.isPresent() && old.get().getVersion() >= level.getVersion()) {
+                return old; // Already has this or a newer version
+            }
+            return Optional.ofNullable(level);
+        }));
+    }
+
+    /**
+     * Start refreshing the roles of players in loaded levels.
+     */
+    public void start() {
+        if(period > 0 && task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::refresh, period, period);
+        }
+    }
+
+    /**
+     * Find the {@link Level} of a loaded {@link World}.
+     *
+     * @param world The loaded world.
+     * @return The level, or empty if the world is not a level.
+     */
+    public Optional<Level> find(World world) {
+        final Optional<Level> level = levels.get(world.getName());
+        if(level != null) {
+            return level;
+        }
+        final String id = world.getName();
+        final Optional<Level> found = levelStore.find(id); // Outside of the map, so other worlds are not blocked
+        final Optional<Level> existing = levels.putIfAbsent(id, found);
+        if(existing != null) {
+            return existing;
+        }
+        found.ifPresent(lvl -> levelStore.watch(id));
+        return found;
+    }
+
+    /**
+     * Find the {@link Level} that a {@link Physical} object is in.
+     *
+     * @param physical The physical object.
+     * @return The level, or empty if the object is not in a level.
+     */
+    public Optional<Level> find(Physical physical) {
+        return find(physical.getWorld());
+    }
+
+    /**
+     * Index a {@link Level} before its {@link World} is loaded,
+     * so loading it does not need to query the store.
+     *
+     * @param level The level that is about to be loaded.
+     */
+    public void put(Level level) {
+        levels.put(level.getId(), Optional.of(level));
+        levelStore.watch(level.getId());
+    }
+
+    private void refresh() {
+        for(Optional<Level> level : levels.values()) {
+            if(level.isPresent() && level.get().isLoaded()) {
+                level.get().getPolicy().refresh();
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.LOWEST)
+    void worldLoad(final WorldLoadEvent event) {
+        find(event.getWorld());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void worldUnload(final WorldUnloadEvent event) {
+        if(levels.remove(event.getWorld().getName()) != null) {
+            levelStore.unwatch(event.getWorld().getName());
+        }
+    }
+
+}
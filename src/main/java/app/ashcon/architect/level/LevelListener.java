@@ -64,7 +64,6 @@ import org.bukkit.event.world.StructureGrowEvent;
 import javax.inject.Inject;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
-import java.util.stream.Stream;
 
 /**
  * Listens to {@link World} events in a {@link Level}
@@ -73,10 +72,10 @@ import java.util.stream.Stream;
 @Reusable
 public class LevelListener implements Listener {
 
-    private final LevelStore levelStore;
+    private final LevelIndex levelIndex;
 
-    @Inject LevelListener(LevelStore levelStore) {
-        this.levelStore = levelStore;
+    @Inject LevelListener(LevelIndex levelIndex) {
+        this.levelIndex = levelIndex;
     }
 
     /**
@@ -90,13 +89,9 @@ public class LevelListener implements Listener {
      * @return Whether the event is allowed.
      */
     public boolean ok(Physical physical, Predicate<Level> predicate) {
-        boolean ok = levelStore.findCached(physical.getWorld().getName())
-                               .map(level -> !level.isLocked() && predicate.test(level))
-                               .orElse(true);
-        if(physical instanceof Cancellable) {
-            ((Cancellable) physical).setCancelled(!ok);
-        }
-        return ok;
+        return ok(physical, levelIndex.find(physical)
+                                      .map(level -> !level.isLocked() && predicate.test(level))
+                                      .orElse(true));
     }
 
     /**
@@ -108,7 +103,34 @@ public class LevelListener implements Listener {
      * @return Whether the event is allowed.
      */
     public boolean ok(Physical physical, Flag... flags) {
-        return ok(physical, level -> flags.length == 0 || Stream.of(flags).anyMatch(level::hasFlag));
+        final Level level = levelIndex.find(physical).orElse(null);
+        return ok(physical, level == null || level.getPolicy().allows(flags));
+    }
+
+    /**
+     * Get whether a {@link Physical} is allowed to do something.
+     *
+     * @see #ok(Physical, Flag...)
+     * @param physical The physical object.
+     * @param flag The required flag for this event.
+     * @return Whether the event is allowed.
+     */
+    public boolean ok(Physical physical, Flag flag) {
+        final Level level = levelIndex.find(physical).orElse(null);
+        return ok(physical, level == null || level.getPolicy().allows(flag));
+    }
+
+    /**
+     * Get whether a {@link Physical} is allowed to do something
+     * that does not require any flags.
+     *
+     * @see #ok(Physical, Flag...)
+     * @param physical The physical object.
+     * @return Whether the event is allowed.
+     */
+    public boolean ok(Physical physical) {
+        final Level level = levelIndex.find(physical).orElse(null);
+        return ok(physical, level == null || !level.getPolicy().isLocked());
     }
 
     /**
@@ -132,7 +154,22 @@ public class LevelListener implements Listener {
      * @return Whether the event is allowed.
      */
     public boolean ok(PlayerAction action, Role role) {
-        return ok(action, (level, player) -> level.hasRole(role, action.getActor()));
+        final Level level = levelIndex.find(action).orElse(null);
+        return ok(action, level == null || level.getPolicy().allows(action.getActor(), role));
+    }
+
+    /**
+     * Cancel a {@link Physical} if it is {@link Cancellable} and not allowed.
+     *
+     * @param physical The physical object.
+     * @param ok Whether the event is allowed.
+     * @return Whether the event is allowed.
+     */
+    private boolean ok(Physical physical, boolean ok) {
+        if(physical instanceof Cancellable) {
+            ((Cancellable) physical).setCancelled(!ok);
+        }
+        return ok;
     }
 
     @EventHandler(ignoreCancelled = true)
@@ -1,6 +1,7 @@
 package app.ashcon.architect.level;
 
-import dagger.Reusable;
+import app.ashcon.architect.util.Settings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
@@ -10,44 +11,482 @@ import org.bukkit.WorldCreator;
 import org.bukkit.WorldType;
 import org.bukkit.block.BlockFace;
 import org.bukkit.generator.ChunkGenerator;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import javax.inject.Singleton;
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Synchronizes {@link Level} and {@link World} states.
  */
-@Reusable
+@Singleton
 public class LevelLoader {
 
     private final LevelStore levelStore;
+    private final LevelIndex levelIndex;
+    private final LevelCache levelCache;
+    private final LevelStreamer levelStreamer;
+    private final LevelUploader levelUploader;
+    private final ExecutorService executor;
+    private final Executor sync;
+    private final Plugin plugin;
+    private final int maxDownloads;
+    private final long budget;
+    private final Map<String, Load> loading;
+    private final List<Load> pending;
+    private final List<Load> ready;
+    private final Map<String, CompletableFuture<Void>> saving;
+    private BukkitTask task;
+    private int downloads;
+    private long loads;
+    private long wait;
+    private long maxWait;
 
-    @Inject LevelLoader(LevelStore levelStore) {
+    @Inject LevelLoader(LevelStore levelStore, LevelIndex levelIndex, LevelCache levelCache, LevelStreamer levelStreamer, LevelUploader levelUploader, Plugin plugin) {
         this.levelStore = levelStore;
+        this.levelIndex = levelIndex;
+        this.levelCache = levelCache;
+        this.levelStreamer = levelStreamer;
+        this.levelUploader = levelUploader;
+        this.maxDownloads = Settings.fetchInt("architect.loader.threads", 2);
+        this.executor = Executors.newFixedThreadPool(
+            maxDownloads,
+            new ThreadFactoryBuilder().setNameFormat("architect-loader-%d").setDaemon(true).build()
+        );
+        this.sync = task -> Bukkit.getScheduler().runTask(plugin, task);
+        this.plugin = plugin;
+        this.budget = TimeUnit.MILLISECONDS.toNanos(Settings.fetchLong("architect.loader.budget", 25));
+        this.loading = new HashMap<>();
+        this.pending = new ArrayList<>();
+        this.ready = new ArrayList<>();
+        this.saving = new ConcurrentHashMap<>();
     }
 
     /**
-     * Save the level and write to disk.
+     * Save the level to disk, then upload it in the background.
      *
+     * If the level is still streaming, it is saved on the main thread once
+     * every region is downloaded, and nothing is saved if streaming failed.
+     *
+     * @see #saveAsync(Level)
      * @param level The level to save.
+     * @return A future that completes once the upload is attempted.
+     */
+    public CompletableFuture<Void> save(Level level) {
+        if(level.isLocked() || !level.isLoaded()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> streamed = levelStreamer.completion(level.getId());
+        if(streamed.isDone()) {
+            return streamed.isCompletedExceptionally() ? CompletableFuture.completedFuture(null) : write(level);
+        }
+        return streamed.handle((ignored, error) -> error == null)
+                       .thenComposeAsync(ok -> ok ? write(level) : CompletableFuture.completedFuture(null), sync);
+    }
+
+    /**
+     * Save the level to disk and snapshot its folder on the main thread,
+     * then upload the snapshot in the background.
+     *
+     * The snapshot only copies files that changed since the last snapshot,
+     * and stays on disk until it is uploaded, even if the server stops.
+     *
+     * @param level The level to save, which must have finished streaming.
+     * @return A future that completes once the upload is attempted.
      */
-    public void save(Level level) {
-        if(level.isLocked() || !level.isLoaded()) return;
+    public CompletableFuture<Void> saveAsync(Level level) {
+        final CompletableFuture<Void> streamed = levelStreamer.completion(level.getId());
+        if(level.isLocked() || !streamed.isDone() || streamed.isCompletedExceptionally()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return write(level);
+    }
+
+    private CompletableFuture<Void> write(Level level) {
+        if(!level.isLoaded()) {
+            return CompletableFuture.completedFuture(null);
+        }
         final World world = level.needWorld();
+        invalidate(level);
         world.save();
-        levelStore.upload(level.getId(), world.getWorldFolder());
+        if(!snapshot(level, world.getWorldFolder())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return upload(level, true);
     }
 
     /**
-     * Load the level onto the server.
+     * Load the level onto the server without blocking the main thread.
+     *
+     * The level is downloaded on a background thread, then its world
+     * is created on the main thread. Concurrent requests to load the
+     * same level share the same future.
+     *
+     * Only a few levels are downloaded at once, prioritizing the default level,
+     * then levels with the most waiting requests, then the oldest requests.
+     * Worlds are created in the same order, within a time budget of each tick.
      *
      * @param level The level to load.
+     * @return A future world, which completes on the main thread,
+     *         or completes exceptionally if the level could not be downloaded.
      */
-    public void load(Level level) {
-        if(level.isLoaded()) return;
-        final File folder = new File(Bukkit.getWorldContainer(), level.getId());
-        levelStore.download(level.getId(), folder);
+    public CompletableFuture<World> loadAsync(Level level) {
+        final World loaded = level.tryWorld();
+        if(loaded != null) {
+            return CompletableFuture.completedFuture(loaded);
+        }
+        final Load load;
+        synchronized(this) {
+            final Load existing = loading.get(level.getId());
+            if(existing != null) {
+                existing.waiters++;
+                return existing.future;
+            }
+            load = new Load(level);
+            loading.put(level.getId(), load);
+            pending.add(load);
+        }
+        levelCache.pin(level.getId());
+        if(task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+        }
+        dispatch();
+        return load.future;
+    }
+
+    /**
+     * Get the number of levels that are waiting to be downloaded or created.
+     *
+     * @return The number of queued levels.
+     */
+    public synchronized int getQueued() {
+        return loading.size();
+    }
+
+    /**
+     * Get the number of levels that were loaded without blocking the main thread.
+     *
+     * @return The number of loads.
+     */
+    public synchronized long getLoads() {
+        return loads;
+    }
+
+    /**
+     * Get the average time between requesting to load a level and creating its world.
+     *
+     * @return The average wait time in milliseconds.
+     */
+    public synchronized double getAverageWait() {
+        return loads == 0 ? 0 : wait / (double) loads;
+    }
+
+    /**
+     * Get the longest time between requesting to load a level and creating its world.
+     *
+     * @return The maximum wait time in milliseconds.
+     */
+    public synchronized long getMaxWait() {
+        return maxWait;
+    }
+
+    /**
+     * Start downloading the levels with the highest priority, while there are free downloads.
+     */
+    private void dispatch() {
+        while(true) {
+            final Load load;
+            synchronized(this) {
+                if(downloads >= maxDownloads || pending.isEmpty()) return;
+                load = Collections.min(pending);
+                pending.remove(load);
+                downloads++;
+            }
+            final String id = load.level.getId();
+            saving.getOrDefault(id, CompletableFuture.completedFuture(null))
+                  .thenRunAsync(() -> download(load.level), executor)
+                  .whenComplete((ignored, error) -> {
+                      synchronized(this) {
+                          downloads--;
+                          if(error == null) {
+                              ready.add(load);
+                          }
+                      }
+                      if(error != null) {
+                          sync.execute(() -> complete(load, null, error));
+                      }
+                      dispatch();
+                  });
+        }
+    }
+
+    /**
+     * Create the worlds of downloaded levels with the highest priority,
+     * until the time budget of the tick is spent.
+     */
+    private void tick() {
+        final long start = System.nanoTime();
+        while(System.nanoTime() - start < budget) {
+            final Load load;
+            synchronized(this) {
+                if(ready.isEmpty()) return;
+                load = Collections.min(ready);
+                ready.remove(load);
+            }
+            try {
+                complete(load, create(load.level), null);
+            } catch(Throwable error) {
+                complete(load, null, error);
+            }
+        }
+    }
+
+    private void complete(Load load, @Nullable World world, @Nullable Throwable error) {
+        final long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - load.queued);
+        synchronized(this) {
+            loading.remove(load.level.getId(), load);
+            loads++;
+            wait += waited;
+            maxWait = Math.max(maxWait, waited);
+        }
+        if(error != null) {
+            levelCache.unpin(load.level.getId());
+            load.future.completeExceptionally(error);
+        } else {
+            load.future.complete(world);
+        }
+    }
+
+    /**
+     * Unload the level and remove it from the server.
+     *
+     * The world is saved to disk and snapshotted on the main thread,
+     * or once it finishes streaming, then uploaded in the background.
+     * Loading the level again waits for the first upload attempt, and
+     * keeps the local folder if the snapshot is still not uploaded.
+     *
+     * @param level The level to unload.
+     * @return A future that completes once the upload is attempted.
+     */
+    public CompletableFuture<Void> unload(Level level) {
+        return unload(level, true);
+    }
+
+    /**
+     * Unload the level and remove it from the server,
+     * optionally discarding any changes to its world.
+     *
+     * @see #unload(Level)
+     * @param level The level to unload.
+     * @param save Whether to save the world, unless the level is locked.
+     * @return A future that completes once the upload is attempted.
+     */
+    public CompletableFuture<Void> unload(Level level, boolean save) {
+        if(!level.isLoaded() || level.isDefault()) return CompletableFuture.completedFuture(null);
+        final World world = level.needWorld();
+        final Level fallback = levelStore.fallback();
+        world.getPlayers().forEach(player -> {
+            player.teleport(fallback.getSpawnLocation());
+            player.sendMessage(ChatColor.RED + "Level " + level.getName() + " was deleted, teleported to " + fallback.getName());
+        });
+        final CompletableFuture<Void> streamed = levelStreamer.completion(level.getId());
+        final boolean upload = save && !level.isLocked() && !streamed.isCompletedExceptionally();
+        if(upload) {
+            invalidate(level);
+        }
+        final File folder = world.getWorldFolder();
+        if(!Bukkit.unloadWorld(world, upload)) {
+            return CompletableFuture.completedFuture(null);
+        } else if(!upload) {
+            levelCache.unpin(level.getId());
+            return CompletableFuture.completedFuture(null);
+        }
+        final CompletableFuture<Void> saved = new CompletableFuture<>();
+        saving.put(level.getId(), saved);
+        final CompletableFuture<Void> uploaded = streamed.isDone() ? upload(level, folder)
+                                                                   : streamed.thenComposeAsync(ignored -> upload(level, folder), executor);
+        uploaded.whenComplete((ignored, error) -> {
+            if(error != null) {
+                error.printStackTrace();
+            }
+            saving.remove(level.getId(), saved);
+            levelCache.unpin(level.getId());
+            saved.complete(null);
+        });
+        return saved;
+    }
+
+    /**
+     * Stop any background work of the loader,
+     * waiting for pending uploads to finish.
+     */
+    public void shutdown() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        try {
+            CompletableFuture.allOf(saving.values().toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        } catch(InterruptedException | ExecutionException | TimeoutException error) {
+            error.printStackTrace();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Snapshot the folder of the level, so it can be uploaded while the world changes.
+     *
+     * @param level The level to snapshot.
+     * @param folder The world folder of the level.
+     * @return Whether the snapshot was created.
+     */
+    private boolean snapshot(Level level, File folder) {
+        try {
+            levelUploader.snapshot(level.getId(), folder);
+            return true;
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Upload the folder of an unloaded level from a snapshot, or directly
+     * if the snapshot could not be created, so its changes are never lost.
+     *
+     * @param level The level to upload.
+     * @param folder The world folder of the level.
+     * @return A future that completes once the upload is attempted.
+     */
+    private CompletableFuture<Void> upload(Level level, File folder) {
+        if(snapshot(level, folder)) {
+            return upload(level, false);
+        }
+        return CompletableFuture.runAsync(() -> {
+            if(levelStore.upload(level.getId(), folder)) {
+                levelStore.revision(level.getId()).ifPresent(revision -> mark(level, revision));
+            }
+        }, executor);
+    }
+
+    /**
+     * Upload the newest snapshot of the level, then mark its folder as cached.
+     *
+     * @param level The level to upload.
+     * @param keep Whether the level is still loaded, so its snapshot is kept as a base.
+     * @return A future that completes once the upload is attempted.
+     */
+    private CompletableFuture<Void> upload(Level level, boolean keep) {
+        return levelUploader.upload(level.getId(), keep).thenAccept(revision -> revision.ifPresent(rev -> mark(level, rev)));
+    }
+
+    /**
+     * Download the files of the level into the world container,
+     * unless the cached folder already matches the remote revision.
+     *
+     * When streaming, only the regions around spawn are downloaded,
+     * and the rest are streamed in the background.
+     *
+     * @param level The level to download.
+     * @throws IllegalStateException If the files of the level could not be downloaded.
+     */
+    private void download(Level level) throws IllegalStateException {
+        final String id = level.getId();
+        final Optional<LevelManifest> manifest = levelStore.manifest(id);
+        final Optional<String> revision = manifest.isPresent() ? Optional.of(manifest.get().getRevision()) : levelStore.revision(id);
+        final File folder = levelCache.getFolder(id);
+        if(revision.isPresent() && levelCache.isFresh(id, revision.get())) return;
+        if(folder.isDirectory() && levelUploader.isPending(id)) return; // Local folder is newer than the remote copy
+        invalidate(level);
+        if(manifest.isPresent() && copy(level, manifest.get())) {
+            mark(level, revision.get());
+            return;
+        }
+        if(manifest.isPresent() && levelStreamer.isEnabled()) {
+            final Set<String> initial = levelStreamer.getInitialRegions(level);
+            if(!manifest.get().download(folder, path -> !LevelStreamer.isStreamable(path) || initial.contains(path))) {
+                throw new IllegalStateException("Level '" + level.getName() + "' could not be downloaded");
+            }
+            levelStreamer.stream(level, manifest.get(), folder).thenRun(() -> mark(level, revision.get()));
+        } else if(levelStore.download(id, folder)) {
+            revision.ifPresent(rev -> mark(level, rev));
+        } else {
+            throw new IllegalStateException("Level '" + level.getName() + "' could not be downloaded");
+        }
+    }
+
+    /**
+     * Copy the local folder of the template that the level was created from,
+     * if the level has the same files as the template.
+     *
+     * @param level The level to download.
+     * @param manifest The manifest of the level.
+     * @return Whether the folder was copied from the template.
+     */
+    private boolean copy(Level level, LevelManifest manifest) {
+        final String source = level.getSource();
+        if(source == null) return false;
+        final Optional<LevelManifest> template = levelStore.manifest(source);
+        return template.isPresent()
+               && template.get().getContent().equals(manifest.getContent())
+               && levelCache.copy(source, template.get().getRevision(), level.getId());
+    }
+
+    /**
+     * Mark the folder of the level as cached, unless it is the default level.
+     *
+     * @param level The level to mark.
+     * @param revision The remote revision that the folder matches.
+     */
+    private void mark(Level level, String revision) {
+        if(!level.isDefault()) {
+            levelCache.mark(level.getId(), revision);
+        }
+    }
+
+    /**
+     * Mark the folder of the level as changed, unless it is the default level,
+     * which must never be evicted from the cache.
+     *
+     * @param level The level to invalidate.
+     */
+    private void invalidate(Level level) {
+        if(!level.isDefault()) {
+            levelCache.invalidate(level.getId());
+        }
+    }
+
+    /**
+     * Create the world of a downloaded level, which must be on the main thread.
+     *
+     * @param level The level to create.
+     * @return The loaded world.
+     */
+    World create(Level level) {
+        final World loaded = level.tryWorld();
+        if(loaded != null) {
+            return loaded;
+        }
         WorldCreator creator = Bukkit.detectWorld(level.getId());
         final boolean initalize = creator == null;
         if(initalize) {
@@ -58,6 +497,7 @@ public class LevelLoader {
                 .hardcore(false)
                 .seed(level.getId().hashCode());
         }
+        levelIndex.put(level);
         final World world = creator.generator(new ChunkGenerator() {
             @Override
             public byte[] generate(World world, Random random, int x, int z) {
@@ -73,23 +513,36 @@ public class LevelLoader {
             world.setTime(0L);
             world.getBlockAt(level.getSpawn()).getRelative(BlockFace.DOWN).setType(Material.BEDROCK);
         }
+        return world;
     }
 
     /**
-     * Unload the level and remove it from the server.
-     *
-     * @param level The level to unload.
+     * A request to load a level, which is ordered by its priority.
      */
-    public void unload(Level level) {
-        if(!level.isLoaded() || level.isDefault()) return;
-        final World world = level.needWorld();
-        final Level fallback = levelStore.fallback();
-        world.getPlayers().forEach(player -> {
-            player.teleport(fallback.getSpawnLocation());
-            player.sendMessage(ChatColor.RED + "Level " + level.getName() + " was deleted, teleported to " + fallback.getName());
-        });
-        save(level);
-        Bukkit.unloadWorld(world, false);
+    private static class Load implements Comparable<Load> {
+
+        private final Level level;
+        private final CompletableFuture<World> future;
+        private final long queued;
+        private int waiters;
+
+        private Load(Level level) {
+            this.level = level;
+            this.future = new CompletableFuture<>();
+            this.queued = System.nanoTime();
+            this.waiters = 1;
+        }
+
+        @Override
+        public int compareTo(Load other) {
+            if(level.isDefault() != other.level.isDefault()) {
+                return level.isDefault() ? -1 : 1;
+            } else if(waiters != other.waiters) {
+                return Integer.compare(other.waiters, waiters);
+            }
+            return Long.compare(queued, other.queued);
+        }
+
     }
 
 }
@@ -0,0 +1,80 @@
+package app.ashcon.architect.level;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Represents the files of the remote copy of a {@link Level},
+ * which can be downloaded separately instead of all at once.
+ *
+ * @see LevelStore#manifest(String)
+ */
+public interface LevelManifest {
+
+    /**
+     * Get the remote revision that the manifest describes.
+     *
+     * @see LevelStore#revision(String)
+     * @return The remote revision.
+     */
+    String getRevision();
+
+    /**
+     * Get when the files were uploaded.
+     *
+     * @return The upload date, or null if it is unknown.
+     */
+    @Nullable Date getCreated();
+
+    /**
+     * Get the paths of every file, relative to the world folder and separated by '/'.
+     *
+     * @return The paths of every file.
+     */
+    List<String> getPaths();
+
+    /**
+     * Check whether a file can be shared with other levels, which is every
+     * file except the unique ID of the world, since Bukkit refuses to load
+     * two worlds with the same ID.
+     *
+     * @param path The path of the file, relative to the world folder.
+     * @return Whether the file can be shared.
+     */
+    static boolean isShared(String path) {
+        return !path.equals("uid.dat");
+    }
+
+    /**
+     * Get a hash of the paths and contents of every shared file,
+     * which is the same for manifests of the same files.
+     *
+     * @see #isShared(String)
+     * @return The hash of the files.
+     */
+    String getContent();
+
+    /**
+     * Download some of the files, replacing the destination
+     * only once every file is downloaded.
+     *
+     * @param destination The local destination to download the level.
+     * @param filter The paths of the files to download.
+     * @return Whether the operation was successful.
+     */
+    boolean download(File destination, Predicate<String> filter);
+
+    /**
+     * Download a single file into the destination, which appears
+     * in the destination only once it is fully downloaded.
+     *
+     * @param destination The local destination of the level.
+     * @param path The path of the file to download.
+     * @return Whether the operation was successful.
+     */
+    boolean download(File destination, String path);
+
+}
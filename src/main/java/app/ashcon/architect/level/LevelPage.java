@@ -0,0 +1,37 @@
+package app.ashcon.architect.level;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * Represents a page of a {@link Level} listing, and where the next page starts.
+ */
+public class LevelPage {
+
+    private final List<LevelSummary> levels;
+    private final @Nullable String next;
+
+    public LevelPage(List<LevelSummary> levels, @Nullable String next) {
+        this.levels = levels;
+        this.next = next;
+    }
+
+    /**
+     * Get the levels of the page, ordered by name and then by ID.
+     *
+     * @return The levels of the page.
+     */
+    public List<LevelSummary> getLevels() {
+        return levels;
+    }
+
+    /**
+     * Get the opaque cursor of the next page.
+     *
+     * @return The cursor, or null if this is the last page.
+     */
+    public @Nullable String getNext() {
+        return next;
+    }
+
+}
@@ -0,0 +1,162 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.level.type.Flag;
+import app.ashcon.architect.level.type.Role;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Represents the compiled lock state, flags and roles of a {@link Level},
+ * so checks can be made without any allocation.
+ *
+ * The lock state and flags are an immutable snapshot. The effective role of
+ * each player in the level is resolved once, when the policy is compiled or
+ * the player enters the level, and again whenever the roles are refreshed,
+ * which picks up changes to operator status and permissions.
+ *
+ * @see Level#getPolicy()
+ */
+public final class LevelPolicy {
+
+    private final Level level;
+    private final boolean locked;
+    private final int flags;
+    private final Map<UUID, Role> roles;
+
+    private LevelPolicy(Level level) {
+        this.level = level;
+        this.locked = level.isLocked();
+        int flags = 0;
+        for(Flag flag : level.getFlags()) {
+            flags |= mask(flag);
+        }
+        this.flags = flags;
+        this.roles = new ConcurrentHashMap<>();
+        refresh();
+    }
+
+    /**
+     * Compile the policy of a {@link Level} from its current state.
+     *
+     * @param level The level to compile.
+     * @return The compiled policy.
+     */
+    static LevelPolicy compile(Level level) {
+        return new LevelPolicy(level);
+    }
+
+    /**
+     * Resolve the effective role of a player, typically because they entered the level.
+     *
+     * @param player The player.
+     * @return The effective role of the player.
+     */
+    public Role track(Player player) {
+        final Role role = level.getRole(player);
+        roles.put(player.getUniqueId(), role);
+        return role;
+    }
+
+    /**
+     * Forget the effective role of a player, typically because they left the level.
+     *
+     * @param player The player.
+     */
+    public void forget(Player player) {
+        roles.remove(player.getUniqueId());
+    }
+
+    /**
+     * Resolve the effective roles of every player in the level again,
+     * since their operator status or permissions may have changed.
+     */
+    public void refresh() {
+        final World world = level.tryWorld();
+        if(world == null) return;
+        for(Player player : world.getPlayers()) {
+            track(player);
+        }
+    }
+
+    /**
+     * Get whether the level is locked.
+     *
+     * @see Level#isLocked()
+     * @return Whether the level is locked.
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Check whether the level has a flag enabled.
+     *
+     * @see Level#hasFlag(Flag)
+     * @param flag The flag to query.
+     * @return Whether the flag is enabled.
+     */
+    public boolean hasFlag(Flag flag) {
+        return (flags & mask(flag)) != 0;
+    }
+
+    /**
+     * Check whether an online player has a role, or a higher role.
+     *
+     * @see Level#hasRole(Role, org.bukkit.command.CommandSender)
+     * @param role The role to query that they have.
+     * @param player The player to query their role.
+     * @return Whether the player has that role, or a higher role.
+     */
+    public boolean hasRole(Role role, Player player) {
+        Role actual = roles.get(player.getUniqueId());
+        if(actual == null) {
+            actual = track(player); // Not in the level, such as a player acting from another world
+        }
+        return actual.ordinal() <= role.ordinal();
+    }
+
+    /**
+     * Check whether something that requires a flag is allowed.
+     *
+     * @param flag The required flag.
+     * @return Whether the level is unlocked and has the flag.
+     */
+    public boolean allows(Flag flag) {
+        return !locked && hasFlag(flag);
+    }
+
+    /**
+     * Check whether something that requires any of the flags is allowed.
+     *
+     * @param flags The required flags, where any one is sufficient.
+     * @return Whether the level is unlocked and has one of the flags.
+     */
+    public boolean allows(Flag... flags) {
+        if(locked) return false;
+        if(flags.length == 0) return true;
+        for(Flag flag : flags) {
+            if(hasFlag(flag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a player action that requires a role is allowed.
+     *
+     * @param player The player doing the action.
+     * @param role The role required for the action.
+     * @return Whether the level is unlocked and the player has the role.
+     */
+    public boolean allows(Player player, Role role) {
+        return !locked && hasRole(role, player);
+    }
+
+    private static int mask(Flag flag) {
+        return 1 << flag.ordinal();
+    }
+
+}
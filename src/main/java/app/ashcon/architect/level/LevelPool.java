@@ -0,0 +1,179 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps {@link Level}s loaded for a grace period after their last player leaves,
+ * so players moving between a few levels do not constantly unload and load them.
+ *
+ * Idle levels are unloaded once they expire, or least recently used first when
+ * there are too many idle levels or they hold too many chunks.
+ *
+ * At most one level is unloaded per tick, since saving and snapshotting
+ * its world still happens on the main thread.
+ *
+ * Must only be used on the main thread.
+ */
+@Singleton
+public class LevelPool {
+
+    private final LevelLoader levelLoader;
+    private final LevelIndex levelIndex;
+    private final Plugin plugin;
+    private final long grace;
+    private final int maxLevels;
+    private final int maxChunks;
+    private final Map<String, Long> idle;
+    private final Deque<String> evicting;
+    private BukkitTask task;
+    private BukkitTask evictor;
+    private long hits;
+    private long evictions;
+
+    @Inject LevelPool(LevelLoader levelLoader, LevelIndex levelIndex, Plugin plugin) {
+        this.levelLoader = levelLoader;
+        this.levelIndex = levelIndex;
+        this.plugin = plugin;
+        this.grace = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.pool.grace", 300));
+        this.maxLevels = Settings.fetchInt("architect.pool.levels", 8);
+        this.maxChunks = Settings.fetchInt("architect.pool.chunks", 2048);
+        this.idle = new LinkedHashMap<>();
+        this.evicting = new ArrayDeque<>();
+    }
+
+    /**
+     * Keep a level that has no players loaded until it is evicted.
+     *
+     * @param level The level that is now empty.
+     */
+    public void release(Level level) {
+        if(!level.isLoaded() || level.isDefault()) return;
+        idle.remove(level.getId());
+        evicting.remove(level.getId());
+        idle.put(level.getId(), System.currentTimeMillis());
+        if(task == null) {
+            final long period = 20 * 10;
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::trim, period, period);
+        }
+        trim();
+    }
+
+    /**
+     * Take a level out of the pool because a player entered it.
+     *
+     * @param level The level that is no longer empty.
+     * @return Whether the level was idle.
+     */
+    public boolean acquire(Level level) {
+        if(idle.remove(level.getId()) == null && !evicting.remove(level.getId())) return false;
+        hits++;
+        return true;
+    }
+
+    /**
+     * Unload every idle level, typically because the server is stopping.
+     */
+    public void drain() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        if(evictor != null) {
+            evictor.cancel();
+            evictor = null;
+        }
+        final List<String> ids = new ArrayList<>(evicting);
+        ids.addAll(idle.keySet());
+        evicting.clear();
+        idle.clear();
+        ids.forEach(id -> unload(Bukkit.getWorld(id)));
+    }
+
+    /**
+     * Get the number of levels that are currently idle.
+     *
+     * @return The number of idle levels.
+     */
+    public int getSize() {
+        return idle.size() + evicting.size();
+    }
+
+    /**
+     * Get the number of times a player entered an idle level,
+     * which would have otherwise been unloaded.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of idle levels that were unloaded.
+     *
+     * @return The number of evictions.
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    private void trim() {
+        final long expiry = System.currentTimeMillis() - grace;
+        int chunks = 0;
+        for(String id : idle.keySet()) {
+            chunks += chunks(Bukkit.getWorld(id));
+        }
+        final Iterator<Map.Entry<String, Long>> iterator = idle.entrySet().iterator();
+        while(iterator.hasNext()) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            if(entry.getValue() > expiry && idle.size() <= maxLevels && chunks <= maxChunks) break;
+            final World world = Bukkit.getWorld(entry.getKey());
+            if(world != null && world.getPlayerCount() > 0) continue; // Last player is still quitting
+            chunks -= chunks(world);
+            iterator.remove();
+            evicting.add(entry.getKey());
+        }
+        if(evictor == null && !evicting.isEmpty()) {
+            evictor = Bukkit.getScheduler().runTaskTimer(plugin, this::evict, 1, 1);
+        }
+    }
+
+    private void evict() {
+        final String id = evicting.poll();
+        if(id == null) {
+            evictor.cancel();
+            evictor = null;
+            return;
+        }
+        unload(Bukkit.getWorld(id));
+    }
+
+    private void unload(@Nullable World world) {
+        if(world == null || world.getPlayerCount() > 0) return;
+        levelIndex.find(world).ifPresent(level -> {
+            evictions++;
+            levelLoader.unload(level);
+        });
+    }
+
+    private static int chunks(@Nullable World world) {
+        return world == null ? 0 : world.getLoadedChunks().length;
+    }
+
+}
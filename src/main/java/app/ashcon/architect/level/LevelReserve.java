@@ -0,0 +1,182 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Settings;
+import org.apache.commons.io.FileUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a reserve of blank {@link World}s, so new {@link Level}s can be
+ * created without creating their world while the player waits.
+ *
+ * Blank worlds are named with the ID of a level that does not exist yet,
+ * and are created one at a time at a fixed rate, skipping ticks when the
+ * server is lagging. Blank worlds are never saved, and any left by a
+ * previous run are deleted.
+ *
+ * Must only be used on the main thread.
+ */
+@Singleton
+public class LevelReserve {
+
+    private final LevelStore levelStore;
+    private final LevelLoader levelLoader;
+    private final LevelIndex levelIndex;
+    private final LevelCache levelCache;
+    private final Plugin plugin;
+    private final File markers;
+    private final int size;
+    private final long period;
+    private final Deque<String> reserve;
+    private BukkitTask task;
+    private long lastRun;
+    private long claims;
+    private long misses;
+
+    @Inject LevelReserve(LevelStore levelStore, LevelLoader levelLoader, LevelIndex levelIndex, LevelCache levelCache, Plugin plugin) {
+        this.levelStore = levelStore;
+        this.levelLoader = levelLoader;
+        this.levelIndex = levelIndex;
+        this.levelCache = levelCache;
+        this.plugin = plugin;
+        this.markers = new File(Bukkit.getWorldContainer(), ".architect" + File.separator + "reserve");
+        this.size = Settings.fetchInt("architect.reserve.size", 2);
+        this.period = Settings.fetchLong("architect.reserve.period", 100);
+        this.reserve = new ArrayDeque<>();
+        this.markers.mkdirs();
+    }
+
+    /**
+     * Delete blank worlds left by a previous run, then start creating blank worlds.
+     */
+    public void start() {
+        final File[] leftovers = markers.listFiles();
+        if(leftovers != null) {
+            for(File marker : leftovers) {
+                FileUtils.deleteQuietly(new File(Bukkit.getWorldContainer(), marker.getName()));
+                marker.delete();
+            }
+        }
+        if(size > 0 && task == null) {
+            lastRun = System.nanoTime();
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::refill, period, period);
+        }
+    }
+
+    /**
+     * Create and store a new level, using a blank world from the reserve if there is one.
+     *
+     * @see LevelStore#create(String, String)
+     * @param name The level name.
+     * @param playerId The initial owner of the level.
+     * @throws IllegalArgumentException If there is already a level with that name.
+     * @return The new level, which is already loaded if a blank world was used.
+     */
+    public Level create(String name, String playerId) throws IllegalArgumentException {
+        final String id = claim();
+        if(id == null) {
+            misses++;
+            return levelStore.create(name, playerId);
+        }
+        final Level level;
+        try {
+            level = levelStore.create(new Level(id, name, playerId));
+        } catch(RuntimeException error) {
+            reserve.addFirst(id);
+            throw error;
+        }
+        new File(markers, id).delete();
+        levelCache.pin(id); // Unpinned once the world is unloaded, like any loaded level
+        levelIndex.put(level);
+        claims++;
+        return level;
+    }
+
+    /**
+     * Unload and delete every blank world, typically because the server is stopping.
+     */
+    public void drain() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        while(!reserve.isEmpty()) {
+            delete(reserve.poll());
+        }
+    }
+
+    /**
+     * Get the number of blank worlds that are ready.
+     *
+     * @return The number of blank worlds.
+     */
+    public int getSize() {
+        return reserve.size();
+    }
+
+    /**
+     * Get the number of levels that were created with a blank world.
+     *
+     * @return The number of claims.
+     */
+    public long getClaims() {
+        return claims;
+    }
+
+    /**
+     * Get the number of levels that were created when the reserve was empty.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    private @Nullable String claim() {
+        String id;
+        while((id = reserve.poll()) != null) {
+            if(Bukkit.getWorld(id) != null) {
+                return id;
+            }
+            delete(id);
+        }
+        return null;
+    }
+
+    private void refill() {
+        final long now = System.nanoTime();
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(now - lastRun);
+        lastRun = now;
+        if(reserve.size() >= size || elapsed > period * 50 * 3 / 2) return; // Server is lagging
+        final String id = Long.toString(System.nanoTime());
+        try {
+            new File(markers, id).createNewFile();
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+            return;
+        }
+        levelLoader.create(new Level(id, "reserved", null, null, null, null, true, null));
+        reserve.add(id);
+    }
+
+    private void delete(String id) {
+        final World world = Bukkit.getWorld(id);
+        if(world != null) {
+            Bukkit.unloadWorld(world, false);
+        }
+        FileUtils.deleteQuietly(new File(Bukkit.getWorldContainer(), id));
+        new File(markers, id).delete();
+    }
+
+}
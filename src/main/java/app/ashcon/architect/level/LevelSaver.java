@@ -0,0 +1,270 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Settings;
+import org.bukkit.Bukkit;
+import org.bukkit.Physical;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockBurnEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockFadeEvent;
+import org.bukkit.event.block.BlockFormEvent;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockGrowEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.block.BlockSpreadEvent;
+import org.bukkit.event.block.LeavesDecayEvent;
+import org.bukkit.event.entity.EntityChangeBlockEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.player.PlayerBucketEmptyEvent;
+import org.bukkit.event.player.PlayerBucketFillEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Periodically saves {@link Level}s that changed since they were last saved,
+ * since their worlds do not autosave.
+ *
+ * Levels are saved once they have been changed for an interval, and saves
+ * are spread across ticks so they spend at most a budget of each tick.
+ * Only the world is saved on the main thread, then it is uploaded in the background.
+ *
+ * Must only be used on the main thread.
+ */
+@Singleton
+public class LevelSaver implements Listener {
+
+    private final LevelLoader levelLoader;
+    private final LevelIndex levelIndex;
+    private final LevelStreamer levelStreamer;
+    private final Plugin plugin;
+    private final long interval;
+    private final long budget;
+    private final Map<String, Long> changed;
+    private final AtomicLong uploads;
+    private final AtomicLong uploadTime;
+    private BukkitTask task;
+    private long saves;
+    private long saveTime;
+    private long lag;
+    private long maxLag;
+
+    @Inject LevelSaver(LevelLoader levelLoader, LevelIndex levelIndex, LevelStreamer levelStreamer, Plugin plugin) {
+        this.levelLoader = levelLoader;
+        this.levelIndex = levelIndex;
+        this.levelStreamer = levelStreamer;
+        this.plugin = plugin;
+        this.interval = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.autosave.interval", 300));
+        this.budget = TimeUnit.MILLISECONDS.toNanos(Settings.fetchLong("architect.autosave.budget", 10));
+        this.changed = new LinkedHashMap<>();
+        this.uploads = new AtomicLong();
+        this.uploadTime = new AtomicLong();
+    }
+
+    /**
+     * Mark a level as changed, so it is saved after the interval.
+     *
+     * @param level The level that changed.
+     */
+    public void change(Level level) {
+        if(interval <= 0 || level.isLocked() || level.isDefault()) return;
+        changed.putIfAbsent(level.getId(), System.currentTimeMillis());
+        if(task == null) {
+            task = Bukkit.getScheduler().runTaskTimer(plugin, this::tick, 1, 1);
+        }
+    }
+
+    /**
+     * Stop saving levels, typically because the server is stopping.
+     */
+    public void shutdown() {
+        if(task != null) {
+            task.cancel();
+            task = null;
+        }
+        changed.clear();
+    }
+
+    /**
+     * Get the number of levels that changed and are waiting to be saved.
+     *
+     * @return The number of changed levels.
+     */
+    public int getPending() {
+        return changed.size();
+    }
+
+    /**
+     * Get the number of levels that were saved.
+     *
+     * @return The number of saves.
+     */
+    public long getSaves() {
+        return saves;
+    }
+
+    /**
+     * Get the average time that saves spent on the main thread.
+     *
+     * @return The average save time in milliseconds.
+     */
+    public double getAverageSaveTime() {
+        return saves == 0 ? 0 : saveTime / (double) saves / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get the average time that uploads spent in the background.
+     *
+     * @return The average upload time in milliseconds.
+     */
+    public double getAverageUploadTime() {
+        final long count = uploads.get();
+        return count == 0 ? 0 : uploadTime.get() / (double) count / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * Get the average time that levels waited to be saved after the interval,
+     * because of the budget of each tick.
+     *
+     * @return The average save lag in milliseconds.
+     */
+    public double getAverageLag() {
+        return saves == 0 ? 0 : lag / (double) saves;
+    }
+
+    /**
+     * Get the longest time that a level waited to be saved after the interval.
+     *
+     * @return The maximum save lag in milliseconds.
+     */
+    public long getMaxLag() {
+        return maxLag;
+    }
+
+    private void tick() {
+        final long now = System.currentTimeMillis();
+        final long start = System.nanoTime();
+        final Iterator<Map.Entry<String, Long>> iterator = changed.entrySet().iterator();
+        while(iterator.hasNext() && System.nanoTime() - start < budget) {
+            final Map.Entry<String, Long> entry = iterator.next();
+            final long due = entry.getValue() + interval;
+            if(due > now) continue;
+            final World world = Bukkit.getWorld(entry.getKey());
+            final Level level = world == null ? null : levelIndex.find(world).orElse(null);
+            if(level == null || !level.isLoaded() || level.isLocked()) {
+                iterator.remove();
+                continue;
+            } else if(!levelStreamer.completion(level.getId()).isDone()) {
+                continue; // Save once every region is downloaded
+            }
+            iterator.remove();
+            final long saved = System.nanoTime();
+            levelLoader.saveAsync(level).thenRun(() -> {
+                uploads.incrementAndGet();
+                uploadTime.addAndGet(System.nanoTime() - saved);
+            });
+            saves++;
+            saveTime += System.nanoTime() - saved;
+            lag += now - due;
+            maxLag = Math.max(maxLag, now - due);
+        }
+    }
+
+    private void change(Physical physical) {
+        levelIndex.find(physical).ifPresent(this::change);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void worldUnload(final WorldUnloadEvent event) {
+        changed.remove(event.getWorld().getName());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockBreak(final BlockBreakEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockPlace(final BlockPlaceEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void bucketEmpty(final PlayerBucketEmptyEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void bucketFill(final PlayerBucketFillEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockChange(final EntityChangeBlockEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockMove(final BlockFromToEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockForm(final BlockFormEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockFade(final BlockFadeEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockGrow(final BlockGrowEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockSpread(final BlockSpreadEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockLeaf(final LeavesDecayEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockBurn(final BlockBurnEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void structureGrow(final StructureGrowEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void entityExplode(final EntityExplodeEvent event) {
+        change(event);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void blockExplode(final BlockExplodeEvent event) {
+        change(event);
+    }
+
+}
@@ -5,6 +5,7 @@ import app.ashcon.architect.model.ModelStore;
 import javax.annotation.Nullable;
 import java.io.File;
 import java.util.List;
+import java.util.Optional;
 
 public interface LevelStore extends ModelStore<Level> {
 
@@ -17,17 +18,20 @@ public interface LevelStore extends ModelStore<Level> {
     Level fallback();
 
     /**
-     * List the levels that a viewer can visit.
+     * List a page of the levels that a viewer can visit, ordered by name and then by ID.
+     *
+     * Private and unlisted levels are only listed for their members.
      *
      * @param playerId The ID of the player, or null for console.
-     * @param page The current page to query.
+     * @param cursor The cursor of the page, or null for the first page.
      * @param perPage The number of results per page.
-     * @return A future paginated level response.
+     * @throws IllegalArgumentException If the cursor is not valid.
+     * @return The page of level summaries.
      */
-    List<Level> list(@Nullable String playerId, int page, int perPage);
+    LevelPage list(@Nullable String playerId, @Nullable String cursor, int perPage) throws IllegalArgumentException;
 
-    default List<Level> list(int page, int perPage) {
-        return list(null, page, perPage);
+    default LevelPage list(@Nullable String cursor, int perPage) throws IllegalArgumentException {
+        return list(null, cursor, perPage);
     }
 
     /**
@@ -50,6 +54,52 @@ public interface LevelStore extends ModelStore<Level> {
      */
     boolean download(String id, File destination);
 
+    /**
+     * Get the manifest of the remote copy of the {@link Level},
+     * so its files can be downloaded separately.
+     *
+     * @param id The ID of the level.
+     * @return The manifest, or empty if the remote copy has no manifest.
+     */
+    Optional<LevelManifest> manifest(String id);
+
+    /**
+     * Get a marker of the remote copy of the {@link Level},
+     * which changes whenever the level is uploaded.
+     *
+     * @param id The ID of the level.
+     * @return The remote revision, or empty if there is no remote copy.
+     */
+    Optional<String> revision(String id);
+
+    /**
+     * Get the snapshots of the remote copy of the {@link Level},
+     * which are kept after each upload under a retention limit.
+     *
+     * @param id The ID of the level.
+     * @return The snapshots, newest first.
+     */
+    List<LevelManifest> snapshots(String id);
+
+    /**
+     * Replace the remote copy of the {@link Level} with one of its snapshots.
+     *
+     * @param id The ID of the level.
+     * @param revision The revision of the snapshot.
+     * @return Whether the snapshot was found and restored.
+     */
+    boolean rollback(String id, String revision);
+
+    /**
+     * Make the remote copy of a {@link Level} the same as the remote copy
+     * of a template, sharing its stored files instead of copying them.
+     *
+     * @param template The ID of the template level.
+     * @param id The ID of the new level, which has no remote copy yet.
+     * @return Whether the template had a remote copy that could be shared.
+     */
+    boolean clone(String template, String id);
+
     /**
      * Create a new {@link Level} with a name and owner.
      *
@@ -59,10 +109,22 @@ public interface LevelStore extends ModelStore<Level> {
      * @return The new level.
      */
     default Level create(String name, String playerId) throws IllegalArgumentException {
-        if(search(name).stream().anyMatch(level -> level.getName().equalsIgnoreCase(name))) {
+        return create(new Level(name, playerId));
+    }
+
+    /**
+     * Store a new {@link Level}, typically with an ID that was chosen in advance.
+     *
+     * @param level The new level.
+     * @throws IllegalArgumentException If there is already a level with that name.
+     * @return The stored level.
+     */
+    default Level create(Level level) throws IllegalArgumentException {
+        final String name = level.getName();
+        if(search(name).stream().anyMatch(other -> other.getName().equalsIgnoreCase(name))) {
             throw new IllegalArgumentException("There is already a level named '" + name + "'");
         }
-        return update(new Level(name, playerId));
+        return update(level);
     }
 
 }
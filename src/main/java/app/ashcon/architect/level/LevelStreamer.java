@@ -0,0 +1,248 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Settings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.util.Vector;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Streams the region files of {@link Level}s in the background, so their
+ * {@link World}s can be created once only the regions around spawn are downloaded.
+ *
+ * Regions that a player moves towards are downloaded on demand,
+ * blocking the main thread only if they are still not downloaded.
+ *
+ * If a region fails to download, players are no longer held back,
+ * but the level stays failed until it is unloaded so it is never uploaded.
+ */
+@Singleton
+public class LevelStreamer implements Listener {
+
+    private final boolean enabled;
+    private final int radius;
+    private final ExecutorService executor;
+    private final Map<String, Stream> streams;
+    private final Map<String, CompletableFuture<Void>> failed;
+
+    @Inject LevelStreamer() {
+        this.enabled = Boolean.parseBoolean(Settings.fetch("architect.stream", "true"));
+        this.radius = Settings.fetchInt("architect.stream.radius", 16);
+        this.executor = Executors.newFixedThreadPool(
+            Settings.fetchInt("architect.stream.threads", 2),
+            new ThreadFactoryBuilder().setNameFormat("architect-stream-%d").setDaemon(true).build()
+        );
+        this.streams = new ConcurrentHashMap<>();
+        this.failed = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Get whether levels should be streamed instead of downloaded all at once.
+     *
+     * @return Whether streaming is enabled.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Check whether a file can be streamed after the world is created,
+     * which is only the case for region files of the overworld.
+     *
+     * @param path The path of the file, relative to the world folder.
+     * @return Whether the file can be streamed.
+     */
+    public static boolean isStreamable(String path) {
+        return path.startsWith("region/") && path.endsWith(".mca") && path.indexOf('/', 7) < 0;
+    }
+
+    /**
+     * Get the regions around the spawn of a level,
+     * which must be downloaded before its world is created.
+     *
+     * @param level The level to query.
+     * @return The paths of the regions around spawn.
+     */
+    public Set<String> getInitialRegions(Level level) {
+        final Vector spawn = level.getSpawn();
+        return regions(spawn.getBlockX() >> 4, spawn.getBlockZ() >> 4, radius);
+    }
+
+    /**
+     * Start streaming the regions of a level that are not yet downloaded.
+     *
+     * @param level The level to stream.
+     * @param manifest The manifest to download regions from.
+     * @param folder The world folder of the level.
+     * @return A future that completes once every region is downloaded.
+     */
+    public CompletableFuture<Void> stream(Level level, LevelManifest manifest, File folder) {
+        final Set<String> remaining = manifest.getPaths().stream()
+                                              .filter(LevelStreamer::isStreamable)
+                                              .filter(path -> !new File(folder, path).exists())
+                                              .collect(Collectors.toSet());
+        if(remaining.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Stream stream = new Stream(manifest, folder, remaining);
+        failed.remove(level.getId());
+        streams.put(level.getId(), stream);
+        remaining.forEach(path -> executor.execute(() -> stream.fetch(path)));
+        stream.completion.whenComplete((ignored, error) -> {
+            if(error != null) {
+                Bukkit.getLogger().warning("Could not stream level " + level.getName() + ": " + error.getMessage());
+                failed.put(level.getId(), stream.completion); // Before the stream is removed, so saves never see it complete
+            }
+            if(!streams.remove(level.getId(), stream)) {
+                failed.remove(level.getId(), stream.completion); // Level was already unloaded
+            }
+        });
+        return stream.completion;
+    }
+
+    /**
+     * Get the future of a level that completes once every region is downloaded.
+     *
+     * @param id The ID of the level.
+     * @return The future, which is already complete if the level is not streaming,
+     *         or failed if its stream failed since it was loaded.
+     */
+    public CompletableFuture<Void> completion(String id) {
+        final Stream stream = streams.get(id);
+        if(stream != null) return stream.completion;
+        return failed.getOrDefault(id, CompletableFuture.completedFuture(null));
+    }
+
+    /**
+     * Stop streaming any regions.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    void move(final PlayerMoveEvent event) {
+        final Location from = event.getFrom();
+        final Location to = event.getTo();
+        if(streams.isEmpty() || (from.getBlockX() >> 4 == to.getBlockX() >> 4 && from.getBlockZ() >> 4 == to.getBlockZ() >> 4)) return;
+        if(!prefetch(to)) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    void teleport(final PlayerTeleportEvent event) {
+        if(!streams.isEmpty() && !prefetch(event.getTo())) {
+            event.setCancelled(true);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    void worldUnload(final WorldUnloadEvent event) {
+        streams.remove(event.getWorld().getName());
+        failed.remove(event.getWorld().getName());
+    }
+
+    /**
+     * Download the regions that chunks around a location are loaded from.
+     *
+     * @param location The location that a player is moving to.
+     * @return Whether the regions are downloaded.
+     */
+    private boolean prefetch(Location location) {
+        final Stream stream = streams.get(location.getWorld().getName());
+        if(stream == null) return true;
+        return stream.await(regions(location.getBlockX() >> 4, location.getBlockZ() >> 4, Bukkit.getViewDistance() + 1));
+    }
+
+    private static Set<String> regions(int chunkX, int chunkZ, int radius) {
+        final Set<String> regions = new HashSet<>();
+        for(int x = (chunkX - radius) >> 5; x <= (chunkX + radius) >> 5; x++) {
+            for(int z = (chunkZ - radius) >> 5; z <= (chunkZ + radius) >> 5; z++) {
+                regions.add("region/r." + x + "." + z + ".mca");
+            }
+        }
+        return regions;
+    }
+
+    private static class Stream {
+
+        private final LevelManifest manifest;
+        private final File folder;
+        private final Map<String, CompletableFuture<Void>> regions;
+        private final Set<String> claimed;
+        private final CompletableFuture<Void> completion;
+
+        private Stream(LevelManifest manifest, File folder, Set<String> paths) {
+            this.manifest = manifest;
+            this.folder = folder;
+            this.regions = new ConcurrentHashMap<>();
+            this.claimed = ConcurrentHashMap.newKeySet();
+            paths.forEach(path -> regions.put(path, new CompletableFuture<>()));
+            this.completion = CompletableFuture.allOf(regions.values().toArray(new CompletableFuture[0]));
+        }
+
+        /**
+         * Download a region on the current thread, unless another thread already is.
+         *
+         * If the region already exists, the server generated it before it was
+         * streamed, so it fails instead of uploading it over the remote copy.
+         */
+        private void fetch(String path) {
+            final CompletableFuture<Void> future = regions.get(path);
+            if(future == null || !claimed.add(path)) return;
+            try {
+                if(new File(folder, path).exists()) {
+                    throw new IllegalStateException("Region " + path + " was created before it was streamed");
+                } else if(!manifest.download(folder, path)) {
+                    throw new IllegalStateException("Could not download region " + path);
+                }
+                future.complete(null);
+            } catch(Throwable error) {
+                future.completeExceptionally(error);
+            }
+        }
+
+        /**
+         * Download regions on the current thread, or wait for other threads to download them.
+         */
+        private boolean await(Collection<String> paths) {
+            boolean ok = true;
+            for(String path : paths) {
+                fetch(path);
+                final CompletableFuture<Void> future = regions.get(path);
+                if(future != null) {
+                    try {
+                        future.join();
+                    } catch(CompletionException error) {
+                        ok = false;
+                    }
+                }
+            }
+            return ok;
+        }
+
+    }
+
+}
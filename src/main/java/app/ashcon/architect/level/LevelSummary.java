@@ -0,0 +1,74 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.level.type.Status;
+
+import java.util.Comparator;
+
+/**
+ * Represents the fields of a {@link Level} that are shown in a listing,
+ * without its roles, spawn or flags.
+ */
+public class LevelSummary {
+
+    /**
+     * The order of levels in a listing, by name and then by ID.
+     */
+    public static final Comparator<LevelSummary> ORDER = Comparator.comparing(LevelSummary::getName).thenComparing(LevelSummary::getId);
+
+    private final String id;
+    private final String name;
+    private final Status status;
+    private final int members;
+
+    public LevelSummary(String id, String name, Status status, int members) {
+        this.id = id;
+        this.name = name;
+        this.status = status;
+        this.members = members;
+    }
+
+    /**
+     * Get the unique ID of the level.
+     *
+     * @return The level ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the name of the level.
+     *
+     * @return The level name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the status of the level.
+     *
+     * @return The level status.
+     */
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * Get the number of players that have a role in the level.
+     *
+     * @return The number of members.
+     */
+    public int getMembers() {
+        return members;
+    }
+
+    @Override
+    public String toString() {
+        return "LevelSummary{id=" + getId()
+               + ", name=" + getName()
+               + ", status=" + getStatus()
+               + ", members=" + getMembers() + "}";
+    }
+
+}
@@ -0,0 +1,252 @@
+package app.ashcon.architect.level;
+
+import app.ashcon.architect.util.Folders;
+import app.ashcon.architect.util.Settings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.io.FileUtils;
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Uploads snapshots of {@link Level} folders in the background,
+ * so the main thread only has to copy the files that changed.
+ *
+ * Snapshots are kept on disk until they are uploaded, which makes them
+ * a durable queue: failed uploads are retried with a backoff, up to a limit
+ * of attempts, and snapshots left by a previous run are uploaded again. Only the newest snapshot
+ * of each level is uploaded, since it supersedes any older snapshots.
+ *
+ * The last uploaded snapshot is kept as a base, so unchanged files
+ * of the next snapshot are hard linked to it instead of copied.
+ */
+@Singleton
+public class LevelUploader {
+
+    private static final String BASE = "base";
+
+    private final LevelStore levelStore;
+    private final File folder;
+    private final long retry;
+    private final long maxRetry;
+    private final int maxAttempts;
+    private final ScheduledExecutorService executor;
+    private final Map<String, CompletableFuture<Optional<String>>> uploads;
+    private final Map<String, Long> backoff;
+    private final Map<String, Integer> attempts;
+    private final Map<String, ScheduledFuture<?>> retries;
+
+    @Inject LevelUploader(LevelStore levelStore) {
+        this.levelStore = levelStore;
+        this.folder = new File(Bukkit.getWorldContainer(), ".architect" + File.separator + "saves");
+        this.retry = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.upload.retry", 30));
+        this.maxRetry = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.upload.retry.max", 600));
+        this.maxAttempts = Settings.fetchInt("architect.upload.retry.attempts", 10);
+        this.executor = Executors.newScheduledThreadPool(
+            Settings.fetchInt("architect.loader.threads", 2),
+            new ThreadFactoryBuilder().setNameFormat("architect-upload-%d").setDaemon(true).build()
+        );
+        this.uploads = new ConcurrentHashMap<>();
+        this.backoff = new ConcurrentHashMap<>();
+        this.attempts = new ConcurrentHashMap<>();
+        this.retries = new ConcurrentHashMap<>();
+        this.folder.mkdirs();
+    }
+
+    /**
+     * Copy the world folder of a level into a new snapshot,
+     * which must not change while it is being copied.
+     *
+     * @param id The ID of the level.
+     * @param source The world folder of the level.
+     * @throws IOException If the snapshot could not be created.
+     */
+    public void snapshot(String id, File source) throws IOException {
+        final File snapshots = new File(folder, id);
+        final String name = Long.toString(next(snapshots));
+        final File partial = new File(snapshots, "." + name + ".partial");
+        try {
+            FileUtils.deleteDirectory(partial);
+            final File base = new File(snapshots, BASE);
+            Folders.snapshot(source, partial, base.isDirectory() ? base : null);
+            Files.move(partial.toPath(), new File(snapshots, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(partial);
+        }
+    }
+
+    /**
+     * Upload the newest snapshot of a level, after any upload of the level that is in progress.
+     *
+     * If the upload fails, it is retried in the background until it succeeds,
+     * or until it runs out of attempts, in which case it is retried on the next run.
+     *
+     * @param id The ID of the level.
+     * @param keep Whether to keep the snapshot as the base of the next snapshot.
+     * @return A future of the revision of the first attempt, or empty if it failed.
+     */
+    public CompletableFuture<Optional<String>> upload(String id, boolean keep) {
+        return uploads.compute(id, (key, previous) -> (previous == null ? CompletableFuture.<Optional<String>>completedFuture(Optional.empty()) : previous)
+            .handleAsync((ignored, error) -> attempt(id, keep), executor));
+    }
+
+    /**
+     * Cancel the uploads of a level and discard its snapshots, typically
+     * because the level is deleted or rolled back, so they are never uploaded.
+     *
+     * @param id The ID of the level.
+     * @return A future that completes once any upload in progress is done.
+     */
+    public CompletableFuture<Void> cancel(String id) {
+        final ScheduledFuture<?> retry = retries.remove(id);
+        if(retry != null) {
+            retry.cancel(false);
+        }
+        return uploads.compute(id, (key, previous) -> (previous == null ? CompletableFuture.<Optional<String>>completedFuture(Optional.empty()) : previous)
+            .handleAsync((ignored, error) -> {
+                backoff.remove(id);
+                attempts.remove(id);
+                try {
+                    FileUtils.deleteDirectory(new File(folder, id));
+                } catch(IOException ioe) {
+                    ioe.printStackTrace();
+                }
+                return Optional.empty();
+            }, executor)).thenApply(ignored -> null);
+    }
+
+    /**
+     * Cancel the uploads of a level, then change its remote copy on the upload threads,
+     * so the change can never be overwritten by a snapshot that was still pending.
+     *
+     * @see #cancel(String)
+     * @param id The ID of the level.
+     * @param change The change to the remote copy, such as deleting or rolling it back.
+     * @param <T> The type of the result of the change.
+     * @return A future of the result of the change.
+     */
+    public <T> CompletableFuture<T> cancel(String id, Supplier<T> change) {
+        return cancel(id).thenApplyAsync(ignored -> change.get(), executor);
+    }
+
+    /**
+     * Check whether a level has snapshots that are not yet uploaded,
+     * in which case its local folder is newer than its remote copy.
+     *
+     * @param id The ID of the level.
+     * @return Whether the level has pending snapshots.
+     */
+    public boolean isPending(String id) {
+        return pending(id).length > 0;
+    }
+
+    /**
+     * Upload the pending snapshots of every level, which were left by a previous run.
+     */
+    public void recover() {
+        final File[] levels = folder.listFiles(File::isDirectory);
+        if(levels == null) return;
+        for(File level : levels) {
+            if(isPending(level.getName())) {
+                upload(level.getName(), false);
+            }
+        }
+    }
+
+    /**
+     * Stop uploading snapshots, which are uploaded again on the next run.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private Optional<String> attempt(String id, boolean keep) {
+        final File[] pending = pending(id);
+        if(pending.length == 0) return Optional.empty();
+        final File newest = pending[pending.length - 1];
+        if(!levelStore.upload(id, newest)) {
+            if(attempts.merge(id, 1, Integer::sum) >= maxAttempts) {
+                Bukkit.getLogger().severe("Could not upload level " + id + " after " + maxAttempts + " attempts, retrying on the next run");
+                backoff.remove(id);
+                attempts.remove(id);
+                return Optional.empty();
+            }
+            final long delay = backoff.merge(id, retry, (previous, initial) -> Math.min(previous * 2, maxRetry));
+            Bukkit.getLogger().warning("Could not upload level " + id + ", retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds");
+            retries.put(id, executor.schedule(() -> {
+                retries.remove(id);
+                upload(id, keep);
+            }, delay, TimeUnit.MILLISECONDS));
+            return Optional.empty();
+        }
+        backoff.remove(id);
+        attempts.remove(id);
+        try {
+            for(File older : pending) {
+                if(older != newest) {
+                    FileUtils.deleteDirectory(older);
+                }
+            }
+            final File base = new File(newest.getParentFile(), BASE);
+            FileUtils.deleteDirectory(base);
+            if(keep) {
+                Files.move(newest.toPath(), base.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                FileUtils.deleteDirectory(newest);
+            }
+        } catch(IOException ioe) {
+            ioe.printStackTrace();
+        }
+        return levelStore.revision(id);
+    }
+
+    /**
+     * Get the snapshots of a level that are not yet uploaded, oldest first.
+     */
+    private File[] pending(String id) {
+        final File[] snapshots = new File(folder, id).listFiles(file -> file.isDirectory() && sequence(file) != null);
+        if(snapshots == null) return new File[0];
+        Arrays.sort(snapshots, Comparator.comparingLong(LevelUploader::sequence));
+        return snapshots;
+    }
+
+    /**
+     * Get the next sequence number of a snapshot, which increases even if the clock does not.
+     */
+    private static long next(File snapshots) {
+        final File[] existing = snapshots.listFiles(file -> sequence(file) != null);
+        long next = System.currentTimeMillis();
+        if(existing != null) {
+            for(File file : existing) {
+                next = Math.max(next, sequence(file) + 1);
+            }
+        }
+        return next;
+    }
+
+    private static @Nullable Long sequence(File snapshot) {
+        try {
+            return Long.parseLong(snapshot.getName());
+        } catch(NumberFormatException nfe) {
+            return null;
+        }
+    }
+
+}
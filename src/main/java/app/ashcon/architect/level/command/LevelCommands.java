@@ -2,7 +2,13 @@ package app.ashcon.architect.level.command;
 
 import app.ashcon.architect.level.Level;
 import app.ashcon.architect.level.LevelLoader;
+import app.ashcon.architect.level.LevelManifest;
+import app.ashcon.architect.level.LevelPage;
+import app.ashcon.architect.level.LevelPool;
+import app.ashcon.architect.level.LevelReserve;
+import app.ashcon.architect.level.LevelSaver;
 import app.ashcon.architect.level.LevelStore;
+import app.ashcon.architect.level.LevelUploader;
 import app.ashcon.architect.level.command.annotation.Current;
 import app.ashcon.architect.level.command.annotation.Require;
 import app.ashcon.architect.level.command.provider.LevelCurrentProvider;
@@ -16,14 +22,18 @@ import app.ashcon.intake.group.At;
 import app.ashcon.intake.group.Group;
 import app.ashcon.intake.parametric.annotation.Switch;
 import dagger.Reusable;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.util.Vector;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Executor;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -31,7 +41,6 @@ import java.util.function.Supplier;
 /**
  * Represents user-commands to interact with {@link Level}s.
  */
-// TODO(ashcon): Add list of levels
 // TODO(ashcon): Fix intake public-only methods
 @Reusable
 @Group({@At("level"), @At("lvl")})
@@ -39,12 +48,22 @@ public class LevelCommands {
 
     private final LevelStore levelStore;
     private final LevelLoader levelLoader;
+    private final LevelPool levelPool;
+    private final LevelSaver levelSaver;
+    private final LevelReserve levelReserve;
+    private final LevelUploader levelUploader;
     private final LevelCurrentProvider levelProvider;
+    private final Executor sync;
 
-    @Inject LevelCommands(LevelStore levelStore, LevelLoader levelLoader, LevelCurrentProvider levelProvider) {
+    @Inject LevelCommands(LevelStore levelStore, LevelLoader levelLoader, LevelPool levelPool, LevelSaver levelSaver, LevelReserve levelReserve, LevelUploader levelUploader, LevelCurrentProvider levelProvider, Plugin plugin) {
         this.levelStore = levelStore;
         this.levelLoader = levelLoader;
+        this.levelPool = levelPool;
+        this.levelSaver = levelSaver;
+        this.levelReserve = levelReserve;
+        this.levelUploader = levelUploader;
         this.levelProvider = levelProvider;
+        this.sync = task -> Bukkit.getScheduler().runTask(plugin, task);
     }
 
     @Command(
@@ -67,6 +86,15 @@ public class LevelCommands {
         }, on, Role.OWNER);
     }
 
+    @Command(
+        aliases = {"template"},
+        desc = "Get or set whether the level is a template",
+        usage = "[true|false]"
+    )
+    public void template(CommandSender sender, @Current Level level, @Nullable Boolean on) {
+        update(sender, level, "template", Level::isTemplate, Level::setTemplate, on, Role.OWNER);
+    }
+
     @Command(
         aliases = {"spawn"},
         desc = "Get or set the spawn of the level",
@@ -120,8 +148,50 @@ public class LevelCommands {
         if(!confirm) {
             throw new IllegalArgumentException("Confirm you want to delete the level with the '-c' flag");
         }
-        levelLoader.unload(level);
-        levelStore.delete(level.getId());
+        sender.sendMessage(ChatColor.YELLOW + "Deleting " + level.getName() + "...");
+        levelLoader.unload(level, false);
+        levelUploader.cancel(level.getId(), () -> {
+            levelStore.delete(level.getId());
+            return null;
+        }).whenCompleteAsync((ignored, error) -> {
+            if(error != null) {
+                error.printStackTrace();
+                sender.sendMessage(ChatColor.RED + "Could not delete " + level.getName() + ", try again later");
+            } else {
+                sender.sendMessage(ChatColor.YELLOW + "Deleted " + level.getName());
+            }
+        }, sync);
+    }
+
+    @Command(
+        aliases = {"rollback"},
+        desc = "List the snapshots of the level, or restore one of them",
+        usage = "[revision]"
+    )
+    public void rollback(CommandSender sender, @Current @Require(Role.OWNER) Level level, @Nullable String revision) {
+        if(revision == null) {
+            final List<LevelManifest> snapshots = levelStore.snapshots(level.getId());
+            if(snapshots.isEmpty()) {
+                throw new IllegalArgumentException("There are no snapshots of " + level.getName());
+            }
+            sender.sendMessage(ChatColor.YELLOW + "Snapshots of " + level.getName() + ":");
+            snapshots.forEach(snapshot -> sender.sendMessage(ChatColor.GRAY + "  " + snapshot.getRevision()
+                                                             + (snapshot.getCreated() == null ? "" : " from " + snapshot.getCreated())));
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Rolling back " + level.getName() + " to revision " + revision + "...");
+        levelLoader.unload(level, false);
+        levelUploader.cancel(level.getId(), () -> levelStore.rollback(level.getId(), revision))
+                     .whenCompleteAsync((restored, error) -> {
+                         if(error != null) {
+                             error.printStackTrace();
+                             sender.sendMessage(ChatColor.RED + "Could not roll back " + level.getName() + ", try again later");
+                         } else if(!restored) {
+                             sender.sendMessage(ChatColor.RED + "There is no snapshot of " + level.getName() + " with revision " + revision);
+                         } else {
+                             sender.sendMessage(ChatColor.YELLOW + "Rolled back " + level.getName() + " to revision " + revision);
+                         }
+                     }, sync);
     }
 
     @Command(
@@ -130,29 +200,109 @@ public class LevelCommands {
         usage = "<name>"
     )
     public void create(@Sender Player sender, String name) {
-        final boolean exists = levelStore.search(name).stream().anyMatch(lvl -> lvl.getName().equalsIgnoreCase(name));
-        if(exists) {
-            throw new IllegalArgumentException("That level name is already taken");
+        final Level level = levelReserve.create(name, sender.getUniqueId().toString());
+        teleport(sender, level);
+    }
+
+    @Command(
+        aliases = {"clone"},
+        desc = "Create a new level from a template",
+        usage = "<template> <name>"
+    )
+    public void clone(@Sender Player sender, @Require(Role.VIEWER) Level template, String name) {
+        if(!template.isTemplate() && !template.hasRole(Role.OWNER, sender)) {
+            throw new IllegalArgumentException("Level " + template.getName() + " is not a template");
+        }
+        final Level level = new Level(name, sender.getUniqueId().toString());
+        level.setSource(template.getId());
+        levelStore.create(level);
+        if(!levelStore.clone(template.getId(), level.getId())) {
+            levelStore.delete(level.getId());
+            throw new IllegalArgumentException("Level " + template.getName() + " must be saved before it can be cloned");
         }
-        final Level level = levelStore.create(name, sender.getUniqueId().toString());
         teleport(sender, level);
     }
 
+    @Command(
+        aliases = {"list"},
+        desc = "List the levels you can visit",
+        usage = "[cursor]"
+    )
+    public void list(CommandSender sender, @Nullable String cursor) {
+        final String playerId = sender instanceof Player ? ((Player) sender).getUniqueId().toString() : null;
+        final LevelPage page = levelStore.list(playerId, cursor, 10);
+        if(page.getLevels().isEmpty()) {
+            throw new IllegalArgumentException("There are no more levels to list");
+        }
+        sender.sendMessage(ChatColor.YELLOW + "Levels:");
+        page.getLevels().forEach(level -> sender.sendMessage(ChatColor.GRAY + "  " + level.getName() + " (" + level.getStatus().name().toLowerCase()
+                                                             + ", " + level.getMembers() + " members)"));
+        if(page.getNext() != null) {
+            sender.sendMessage(ChatColor.YELLOW + "Use /level list " + page.getNext() + " to see more");
+        }
+    }
+
     @Command(
         aliases = {"tp"},
         desc = "Teleport to another level"
     )
     public void teleport(CommandSender sender, @Require(Role.VIEWER) Level level) {
-        levelLoader.load(level);
-        if(sender instanceof Player) {
-            final Player player = (Player) sender;
-            if(!level.needWorld().equals(player.getWorld())) {
-                player.teleport(level.getSpawnLocation());
-            }
-        } else {
-            levelProvider.setContext(sender, level);
+        if(!level.isLoaded()) {
+            sender.sendMessage(ChatColor.YELLOW + "Loading " + level.getName() + "...");
         }
-        sender.sendMessage(ChatColor.YELLOW + "Teleported you to " + level.getName());
+        levelLoader.loadAsync(level).whenComplete((world, error) -> {
+            if(error != null) {
+                sender.sendMessage(ChatColor.RED + "Could not load " + level.getName() + ", try again later");
+                return;
+            }
+            if(sender instanceof Player) {
+                final Player player = (Player) sender;
+                if(!player.isOnline()) {
+                    return;
+                } else if(!world.equals(player.getWorld())) {
+                    player.teleport(level.getSpawnLocation());
+                }
+            } else {
+                levelProvider.setContext(sender, level);
+            }
+            sender.sendMessage(ChatColor.YELLOW + "Teleported you to " + level.getName());
+        });
+    }
+
+    @Command(
+        aliases = {"pool"},
+        desc = "Show statistics of idle levels and blank worlds that are kept loaded",
+        perms = "architect.admin"
+    )
+    public void pool(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + "There are " + levelPool.getSize() + " idle levels, with "
+                           + levelPool.getHits() + " hits and " + levelPool.getEvictions() + " evictions");
+        sender.sendMessage(ChatColor.YELLOW + "There are " + levelReserve.getSize() + " blank worlds, with "
+                           + levelReserve.getClaims() + " claims and " + levelReserve.getMisses() + " misses");
+    }
+
+    @Command(
+        aliases = {"queue"},
+        desc = "Show statistics of levels that are waiting to load",
+        perms = "architect.admin"
+    )
+    public void queue(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + String.format("There are %d levels waiting to load, with %d loads waiting %.0fms on average and %dms at most",
+                                                            levelLoader.getQueued(), levelLoader.getLoads(),
+                                                            levelLoader.getAverageWait(), levelLoader.getMaxWait()));
+    }
+
+    @Command(
+        aliases = {"autosave"},
+        desc = "Show statistics of levels that are saved periodically",
+        perms = "architect.admin"
+    )
+    public void autosave(CommandSender sender) {
+        sender.sendMessage(ChatColor.YELLOW + "There are " + levelSaver.getPending() + " changed levels, with "
+                           + levelSaver.getSaves() + " saves so far");
+        sender.sendMessage(ChatColor.YELLOW + String.format("Saves take %.1fms on the main thread and %.1fms to upload, lagging %.0fms on average and %dms at most",
+                                                            levelSaver.getAverageSaveTime(), levelSaver.getAverageUploadTime(),
+                                                            levelSaver.getAverageLag(), levelSaver.getMaxLag()));
     }
 
     private <T> void update(CommandSender sender, Level level, String name, Function<Level, T> getter, BiConsumer<Level, T> setter, T value, Role role) {
@@ -166,8 +316,7 @@ public class LevelCommands {
             () -> (isEdit && canEdit && !isSame) || (!isEdit && canView),
             () -> {
                 if(value != null && canEdit) {
-                    setter.accept(level, value);
-                    levelStore.update(level);
+                    levelStore.update(level, lvl -> setter.accept(lvl, value));
                 }
             },
             () -> {
@@ -1,6 +1,7 @@
 package app.ashcon.architect.level.command.provider;
 
 import app.ashcon.architect.level.Level;
+import app.ashcon.architect.level.LevelIndex;
 import app.ashcon.architect.level.LevelStore;
 import app.ashcon.architect.level.command.annotation.Require;
 import app.ashcon.architect.level.type.Role;
@@ -17,6 +18,7 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.lang.annotation.Annotation;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -30,11 +32,13 @@ import java.util.concurrent.TimeUnit;
 public class LevelCurrentProvider implements BukkitProvider<Level> {
 
     private final LevelStore levelStore;
+    private final LevelIndex levelIndex;
     private final Cache<String, String> consoleContext;
 
     @Inject
-    LevelCurrentProvider(LevelStore levelStore) {
+    LevelCurrentProvider(LevelStore levelStore, LevelIndex levelIndex) {
         this.levelStore = levelStore;
+        this.levelIndex = levelIndex;
         this.consoleContext = CacheBuilder.newBuilder()
                                           .expireAfterWrite(1, TimeUnit.HOURS)
                                           .initialCapacity(16)
@@ -48,14 +52,13 @@ public class LevelCurrentProvider implements BukkitProvider<Level> {
 
     @Override
     public Level get(CommandSender sender, CommandArgs args, List<? extends Annotation> mods) throws ArgumentException, ProvisionException {
-        final String levelId;
+        final Optional<Level> current;
         if(sender instanceof Physical) {
-            levelId = ((Physical) sender).getWorld().getName();
+            current = levelIndex.find((Physical) sender);
         } else {
-            levelId = consoleContext.getIfPresent(sender.getName());
+            current = levelStore.find(consoleContext.getIfPresent(sender.getName()));
         }
-        final Level level = levelStore.find(levelId)
-                                      .orElseThrow(() -> new ArgumentException("Could not find your current level, try teleporting to one"));
+        final Level level = current.orElseThrow(() -> new ArgumentException("Could not find your current level, try teleporting to one"));
         final Role role = getRole(mods);
         if(level.hasRole(role, sender)) {
             return level;
@@ -1,5 +1,8 @@
 package app.ashcon.architect.model;
 
+import javax.annotation.Nullable;
+import java.util.Set;
+
 /**
  * Represents an object with a unique ID and mutable name.
  */
@@ -28,4 +31,40 @@ public interface Model {
      */
     void setName(String name) throws IllegalArgumentException;
 
+    /**
+     * Get the version of the model, which increases every time it is stored.
+     *
+     * @return The version, or 0 if the model was never stored with a version.
+     */
+    long getVersion();
+
+    /**
+     * Set the version of the model, after it was stored.
+     *
+     * @param version The new version.
+     */
+    void setVersion(long version);
+
+    /**
+     * Get the fields that changed since the model was last stored,
+     * then start tracking changes from the current state.
+     *
+     * Nested fields are separated by a dot, such as "roles.id".
+     *
+     * @return The changed fields, or null if the whole model should be stored.
+     */
+    default @Nullable Set<String> popChanges() {
+        return null;
+    }
+
+    /**
+     * Mark fields as changed again, after they were popped
+     * but could not be stored.
+     *
+     * @param changes The popped fields, or null if the whole model should be stored.
+     */
+    default void restoreChanges(@Nullable Set<String> changes) {
+        // Changes are not tracked by default.
+    }
+
 }
@@ -0,0 +1,36 @@
+package app.ashcon.architect.model;
+
+/**
+ * Thrown when a {@link Model} could not be stored, because it was
+ * changed by someone else since its version was read.
+ */
+public class ModelConflictException extends IllegalStateException {
+
+    private final String id;
+    private final long version;
+
+    public ModelConflictException(String id, long version) {
+        super("Model '" + id + "' was changed since version " + version);
+        this.id = id;
+        this.version = version;
+    }
+
+    /**
+     * Get the ID of the model that conflicted.
+     *
+     * @return The model ID.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the version of the model that was expected to be stored.
+     *
+     * @return The expected version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+}
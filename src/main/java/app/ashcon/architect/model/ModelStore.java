@@ -1,44 +1,116 @@
 package app.ashcon.architect.model;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 /**
  * Represents a mechanism to query for {@link Model}s from a store.
  */
 public interface ModelStore<T extends Model> {
 
+    int MAX_ATTEMPTS = 3;
+
     /**
      * Find a model by its unique ID.
      *
      * @param id The unique model ID.
+     * @throws ModelStoreException If the store could not be queried.
      * @return An optional model.
      */
-    Optional<T> find(String id);
+    Optional<T> find(String id) throws ModelStoreException;
 
     /**
      * Find a model by its unique ID in cache.
      *
      * @param id The unique model ID.
+     * @throws ModelStoreException If the store could not be queried.
      * @return An optional model.
      */
-    Optional<T> findCached(String id);
+    Optional<T> findCached(String id) throws ModelStoreException;
+
+    /**
+     * Find many models by their unique IDs.
+     *
+     * @param ids The unique model IDs.
+     * @throws ModelStoreException If the store could not be queried.
+     * @return The models that were found, by their ID.
+     */
+    Map<String, T> findAll(Collection<String> ids) throws ModelStoreException;
+
+    /**
+     * Find many models by their unique IDs in cache,
+     * and cache the models that were not cached.
+     *
+     * @param ids The unique model IDs.
+     * @throws ModelStoreException If the store could not be queried.
+     * @return The models that were found, by their ID.
+     */
+    Map<String, T> findAllCached(Collection<String> ids) throws ModelStoreException;
 
     /**
      * Search for a model by its name.
      *
      * @param name The model name.
+     * @throws ModelStoreException If the store could not be queried.
      * @return A list of models.
      */
-    List<T> search(String name);
+    List<T> search(String name) throws ModelStoreException;
 
     /**
-     * Update or create a model to the store.
+     * Update or create a model to the store, if it was not
+     * changed by someone else since its version was read.
      *
      * @param model The model.
+     * @throws ModelConflictException If the stored version is different.
      * @return An updated model.
      */
-    T update(T model);
+    T update(T model) throws ModelConflictException;
+
+    /**
+     * Change a model and update it to the store, applying the change
+     * again to the latest version if it was changed by someone else.
+     *
+     * @param model The model.
+     * @param change The change to apply.
+     * @throws ModelConflictException If the model kept changing.
+     * @return An updated model, which is a new model if there was a conflict.
+     */
+    default T update(T model, Consumer<T> change) throws ModelConflictException {
+        change.accept(model);
+        try {
+            return update(model);
+        } catch(ModelConflictException conflict) {
+            return modify(model.getId(), change).orElse(model);
+        }
+    }
+
+    /**
+     * Find the latest version of a model, change it, and update it to the store,
+     * trying again if it was changed by someone else in between.
+     *
+     * @param id The model ID.
+     * @param change The change to apply.
+     * @throws ModelConflictException If the model kept changing.
+     * @return The updated model, or empty if it does not exist.
+     */
+    default Optional<T> modify(String id, Consumer<T> change) throws ModelConflictException {
+        for(int attempt = 1; ; attempt++) {
+            final Optional<T> model = find(id);
+            if(!model.isPresent()) {
+                return model;
+            }
+            change.accept(model.get());
+            try {
+                return Optional.of(update(model.get()));
+            } catch(ModelConflictException conflict) {
+                if(attempt >= MAX_ATTEMPTS) throw conflict;
+            }
+        }
+    }
 
     /**
      * Delete a model from the store.
@@ -47,4 +119,37 @@ public interface ModelStore<T extends Model> {
      */
     void delete(String id);
 
+    /**
+     * Write any buffered updates to the store and wait for them,
+     * typically because the server is stopping.
+     *
+     * @throws IllegalStateException If some updates could not be written.
+     */
+    default void flush() throws IllegalStateException {
+        // Updates are not buffered by default.
+    }
+
+    /**
+     * Watch for changes of a model, even if it is not cached.
+     *
+     * @param id The model ID to watch.
+     */
+    void watch(String id);
+
+    /**
+     * Stop watching for changes of a model.
+     *
+     * @param id The model ID to stop watching.
+     */
+    void unwatch(String id);
+
+    /**
+     * Subscribe to changes of cached or watched models in the store,
+     * including changes made by other servers.
+     *
+     * @param listener The listener, which accepts the model ID and
+     *                 the changed model, or null if it was deleted.
+     */
+    void subscribe(BiConsumer<String, T> listener);
+
 }
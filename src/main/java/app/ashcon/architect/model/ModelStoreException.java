@@ -0,0 +1,13 @@
+package app.ashcon.architect.model;
+
+/**
+ * Thrown when a {@link ModelStore} could not be queried,
+ * such as when the query timed out or the connection was lost.
+ */
+public class ModelStoreException extends IllegalStateException {
+
+    public ModelStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
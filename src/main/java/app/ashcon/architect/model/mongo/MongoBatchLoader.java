@@ -0,0 +1,92 @@
+package app.ashcon.architect.model.mongo;
+
+import app.ashcon.architect.model.Model;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Loads {@link Model}s that are requested at the same time in batches,
+ * so concurrent lookups of different models share a query.
+ *
+ * The first lookup is loaded after a window, which can be zero. Lookups
+ * that arrive while a batch is loading are loaded together once it is done.
+ */
+class MongoBatchLoader<M extends Model> {
+
+    private final Function<Collection<String>, Map<String, M>> loader;
+    private final long window;
+    private final int batch;
+    private final Map<String, CompletableFuture<Optional<M>>> waiting;
+    private final ScheduledExecutorService executor;
+    private boolean loading;
+
+    MongoBatchLoader(Function<Collection<String>, Map<String, M>> loader, long window, int batch) {
+        this.loader = loader;
+        this.window = window;
+        this.batch = batch;
+        this.waiting = new LinkedHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("architect-find-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Load a model with the next batch, and wait for it.
+     *
+     * @param id The model ID.
+     * @return An optional model.
+     */
+    Optional<M> load(String id) {
+        final CompletableFuture<Optional<M>> future;
+        synchronized(this) {
+            future = waiting.computeIfAbsent(id, key -> new CompletableFuture<>());
+            if(!loading) {
+                loading = true;
+                executor.schedule(this::dispatch, window, TimeUnit.MILLISECONDS);
+            }
+        }
+        try {
+            return future.join();
+        } catch(CompletionException error) {
+            if(error.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) error.getCause();
+            }
+            throw error;
+        }
+    }
+
+    private void dispatch() {
+        while(true) {
+            final Map<String, CompletableFuture<Optional<M>>> next = new HashMap<>();
+            synchronized(this) {
+                final Iterator<Map.Entry<String, CompletableFuture<Optional<M>>>> iterator = waiting.entrySet().iterator();
+                while(iterator.hasNext() && next.size() < batch) {
+                    final Map.Entry<String, CompletableFuture<Optional<M>>> entry = iterator.next();
+                    next.put(entry.getKey(), entry.getValue());
+                    iterator.remove();
+                }
+                if(next.isEmpty()) {
+                    loading = false;
+                    return;
+                }
+            }
+            try {
+                final Map<String, M> found = loader.apply(next.keySet());
+                next.forEach((id, future) -> future.complete(Optional.ofNullable(found.get(id))));
+            } catch(Throwable error) {
+                next.values().forEach(future -> future.completeExceptionally(error));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,209 @@
+package app.ashcon.architect.model.mongo;
+
+import app.ashcon.architect.util.Hashes;
+import app.ashcon.architect.util.Region;
+import app.ashcon.architect.util.compression.Compression;
+import app.ashcon.architect.util.compression.Compressions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashingInputStream;
+import com.mongodb.MongoGridFSException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSUploadStream;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Updates;
+import org.bson.BsonObjectId;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Stores the files of worlds in GridFS, addressed by their content hash
+ * so identical files are only stored once across every level.
+ *
+ * Each hash has a reference count of the snapshots that include it,
+ * and its file is deleted once no snapshot includes it anymore.
+ */
+@Singleton
+public class MongoBlobStore {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private final GridFSBucket bucket;
+    private final MongoCollection<Document> blobs;
+
+    @Inject MongoBlobStore(MongoDatabase db) {
+        this.bucket = GridFSBuckets.create(db, "worlds");
+        this.blobs = db.getCollection("worlds.blobs");
+    }
+
+    /**
+     * Add a reference to the blob of a hash, uploading it if it is not stored yet.
+     *
+     * @param hash The hash of the content.
+     * @param file The file to upload.
+     * @param region The packed region of the file, or null if it is not a region.
+     * @param compression The compression to upload with.
+     * @return The ID of the stored blob.
+     * @throws IOException If the file could not be uploaded.
+     */
+    public BsonValue reference(String hash, File file, @Nullable byte[] region, Compression compression) throws IOException {
+        final Document blob = blobs.findOneAndUpdate(
+            Filters.eq("_id", hash),
+            Updates.inc("refs", 1),
+            new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
+        );
+        final ObjectId existing = blob.getObjectId("file");
+        if(existing != null) {
+            return new BsonObjectId(existing);
+        }
+        final ObjectId uploaded = upload(hash, file, region, compression);
+        final Document claimed = blobs.findOneAndUpdate(
+            Filters.and(Filters.eq("_id", hash), Filters.exists("file", false)),
+            Updates.set("file", uploaded)
+        );
+        if(claimed != null) {
+            return new BsonObjectId(uploaded);
+        }
+        // Another upload of the same hash finished first
+        delete(new BsonObjectId(uploaded));
+        final Document winner = blobs.find(Filters.eq("_id", hash)).first();
+        if(winner == null || winner.getObjectId("file") == null) {
+            throw new IOException("Blob " + hash + " was deleted while it was referenced");
+        }
+        return new BsonObjectId(winner.getObjectId("file"));
+    }
+
+    /**
+     * Add a reference to blobs that are already stored.
+     *
+     * @param hashes The hashes to retain, each once per reference.
+     * @return Whether every blob is still stored, otherwise no references are added.
+     */
+    public boolean retain(Collection<String> hashes) {
+        final List<String> retained = new ArrayList<>();
+        for(String hash : hashes) {
+            final Document blob = blobs.findOneAndUpdate(
+                Filters.and(Filters.eq("_id", hash), Filters.gt("refs", 0), Filters.exists("file", true)),
+                Updates.inc("refs", 1)
+            );
+            if(blob == null) {
+                release(retained);
+                return false;
+            }
+            retained.add(hash);
+        }
+        return true;
+    }
+
+    /**
+     * Remove a reference to the blobs of hashes, deleting any blobs
+     * that are no longer referenced.
+     *
+     * @param hashes The hashes to release, each once per reference.
+     */
+    public void release(Collection<String> hashes) {
+        for(String hash : hashes) {
+            blobs.updateOne(Filters.eq("_id", hash), Updates.inc("refs", -1));
+            final Document blob = blobs.findOneAndUpdate(
+                Filters.and(Filters.eq("_id", hash), Filters.lte("refs", 0)),
+                Updates.unset("file")
+            );
+            if(blob == null) continue;
+            final ObjectId file = blob.getObjectId("file");
+            if(file != null) {
+                delete(new BsonObjectId(file));
+            }
+            blobs.deleteOne(Filters.and(Filters.eq("_id", hash), Filters.lte("refs", 0), Filters.exists("file", false)));
+        }
+    }
+
+    /**
+     * Download a blob into a file, verifying its content hash.
+     *
+     * @param id The ID of the blob.
+     * @param hash The expected hash of the content.
+     * @param file The file to write.
+     * @param region Whether the content is a packed region.
+     * @throws IOException If the blob could not be downloaded or does not match its hash.
+     */
+    public void download(BsonValue id, String hash, File file, boolean region) throws IOException {
+        file.getParentFile().mkdirs();
+        final Compression legacy = region ? Compressions.NONE : Compressions.DEFLATE;
+        final HashCode actual;
+        try(HashingInputStream in = new HashingInputStream(Hashes.FUNCTION, Compressions.read(bucket.openDownloadStream(id), legacy));
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+            if(region) {
+                Region.unpack(in, out);
+            } else {
+                copy(in, out);
+            }
+            actual = in.hash();
+        }
+        if(!actual.toString().equals(hash)) {
+            throw new IOException("File " + file + " does not match its hash " + hash);
+        }
+    }
+
+    /**
+     * Delete a blob, ignoring whether it exists.
+     *
+     * @param id The ID of the blob.
+     */
+    public void delete(BsonValue id) {
+        try {
+            bucket.delete(id);
+        } catch(MongoGridFSException mgfse) {}
+    }
+
+    private ObjectId upload(String hash, File file, @Nullable byte[] region, Compression compression) throws IOException {
+        final GridFSUploadStream upload = bucket.openUploadStream(hash);
+        try {
+            final OutputStream out = Compressions.write(upload, compression);
+            if(region != null) {
+                out.write(region);
+            } else {
+                try(InputStream in = new FileInputStream(file)) {
+                    copy(in, out);
+                }
+            }
+            out.close();
+        } catch(IOException | RuntimeException error) {
+            upload.abort();
+            throw error;
+        }
+        return upload.getObjectId();
+    }
+
+    /**
+     * Copy a stream using the buffer of the current thread,
+     * so concurrent transfers do not allocate one for every file.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        final byte[] buffer = BUFFER.get();
+        int read;
+        while((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+}
@@ -1,18 +1,46 @@
 package app.ashcon.architect.model.mongo;
 
 import app.ashcon.architect.level.Level;
+import app.ashcon.architect.level.LevelManifest;
+import app.ashcon.architect.level.LevelPage;
 import app.ashcon.architect.level.LevelStore;
+import app.ashcon.architect.level.LevelSummary;
+import app.ashcon.architect.level.type.Status;
+import app.ashcon.architect.util.Folders;
+import app.ashcon.architect.util.Hashes;
+import app.ashcon.architect.util.Region;
+import app.ashcon.architect.util.Settings;
 import app.ashcon.architect.util.Zip;
+import app.ashcon.architect.util.compression.Compression;
+import app.ashcon.architect.util.compression.Compressions;
+import com.google.common.hash.Hasher;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
 import com.mongodb.MongoGridFSException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
 import com.mongodb.client.gridfs.GridFSBucket;
 import com.mongodb.client.gridfs.GridFSBuckets;
 import com.mongodb.client.gridfs.GridFSDownloadStream;
-import com.mongodb.client.gridfs.GridFSUploadStream;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.apache.commons.io.FileUtils;
+import org.bson.BsonObjectId;
 import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
 import org.bukkit.Bukkit;
 
 import javax.annotation.Nullable;
@@ -20,39 +48,122 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 @Singleton
 public class MongoLevelStore extends MongoModelStore<Level> implements LevelStore {
 
+    private static final String FILE = "file";
+    private static final String REGION = "region";
+    private static final char SEPARATOR = '\0';
+
+    private final MongoBlobStore blobs;
     private final GridFSBucket bucket;
+    private final MongoCollection<Document> manifests;
+    private final MongoCollection<Document> snapshots;
+    private final MongoCollection<Document> migrations;
+    private final ForkJoinPool workers;
+    private final String defaultCompression;
+    private final String largeCompression;
+    private final long largeSize;
+    private final int retention;
 
-    @Inject MongoLevelStore(MongoDatabase db) {
-        super(Level.class, db.getCollection("levels"));
+    @Inject MongoLevelStore(MongoDatabase db, MongoBlobStore blobs, MongoWatcher watcher) {
+        super(Level.class, db.getCollection("levels"), watcher);
+        this.blobs = blobs;
         this.bucket = GridFSBuckets.create(db, "worlds");
+        this.manifests = db.getCollection("worlds.manifests");
+        this.snapshots = db.getCollection("worlds.snapshots");
+        this.migrations = db.getCollection("migrations");
+        this.workers = new ForkJoinPool(Settings.fetchInt("architect.upload.threads", Runtime.getRuntime().availableProcessors()));
+        this.defaultCompression = Settings.fetch("architect.compression", Compressions.DEFLATE.getName());
+        this.largeCompression = Settings.fetch("architect.compression.large", defaultCompression);
+        this.largeSize = Settings.fetchLong("architect.compression.threshold", 256) * 1024 * 1024;
+        this.retention = Math.max(1, Settings.fetchInt("architect.snapshots", 10));
         this.collection.createIndex(Indexes.text("name"));
         this.collection.createIndex(Indexes.ascending("default"));
+        this.collection.createIndex(Indexes.ascending("status", "name", "_id"));
+        this.collection.createIndex(Indexes.ascending("members", "name", "_id"));
+        this.snapshots.createIndex(Indexes.compoundIndex(Indexes.ascending("level"), Indexes.descending("revision")));
+        this.workers.execute(this::migrateMembers);
+    }
+
+    /**
+     * Store the members of levels that were stored before members were,
+     * from the keys of their roles, unless their roles changed since.
+     *
+     * Runs once in the background, then is marked as done so later runs skip it.
+     * If it fails, it is attempted again on the next run.
+     */
+    private void migrateMembers() {
+        final String migration = "level-members";
+        try {
+            if(migrations.find(Filters.eq("_id", migration)).first() != null) return;
+            final List<WriteModel<Document>> updates = new ArrayList<>(batchSize);
+            int migrated = 0;
+            for(Document level : collection.find(Filters.and(Filters.exists("roles"), Filters.exists("members", false))).projection(Projections.include("roles"))) {
+                final Document roles = level.get("roles", Document.class);
+                updates.add(new UpdateOneModel<>(
+                    Filters.and(Filters.eq("_id", level.get("_id")), Filters.eq("roles", roles)),
+                    Updates.set("members", new ArrayList<>(roles.keySet()))
+                ));
+                if(updates.size() >= batchSize) {
+                    migrated += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+                    updates.clear();
+                }
+            }
+            if(!updates.isEmpty()) {
+                migrated += collection.bulkWrite(updates, new BulkWriteOptions().ordered(false)).getModifiedCount();
+            }
+            migrations.replaceOne(Filters.eq("_id", migration), new Document("_id", migration).append("completed", new Date()), new ReplaceOptions().upsert(true));
+            if(migrated > 0) {
+                Bukkit.getLogger().info("Stored the members of " + migrated + " levels");
+            }
+        } catch(MongoException error) {
+            Bukkit.getLogger().warning("Could not store the members of levels, retrying on the next run: " + error.getMessage());
+        }
     }
 
+    /**
+     * Delete every snapshot of the world, then any blobs that are no longer referenced.
+     */
     @Override
     public void delete(String id) {
         super.delete(id);
-        deleteFile(id);
-    }
-
-    private void deleteFile(String id) {
-        try {
-            bucket.delete(new BsonString(id));
-        } catch(MongoGridFSException mgfse) {}
+        blobs.delete(new BsonString(id));
+        deleteLegacy(id, manifests.findOneAndDelete(Filters.eq("_id", id)));
+        for(Document snapshot : snapshots.find(Filters.eq("level", id))) {
+            deleteSnapshot(snapshot);
+        }
     }
 
     @Override
     public Level fallback() {
         final List<Level> fallbacks = requestDocuments(
-            collection.find(Filters.eq("default", true))
+            documents.find(Filters.eq("default", true))
         ).collect(Collectors.toList());
         if(fallbacks.size() == 1) {
             final Level fallback = fallbacks.get(0);
@@ -61,62 +172,548 @@ public class MongoLevelStore extends MongoModelStore<Level> implements LevelStor
                 return fallback;
             }
         }
-        fallbacks.forEach(level -> {
-            level.setDefault(false);
-            update(level);
-        });
-        return update(Level.createDefault());
+        fallbacks.forEach(level -> update(level, lvl -> lvl.setDefault(false)));
+        final Level fallback = Level.createDefault();
+        find(fallback.getId()).ifPresent(existing -> fallback.setVersion(existing.getVersion()));
+        return update(fallback);
     }
 
+    /**
+     * List a page of levels by seeking past the cursor, so each page
+     * costs the same no matter how deep it is.
+     *
+     * Public levels are listed with the index on status, name and ID. Levels
+     * that the viewer is a member of are listed separately with the index
+     * on members, name and ID, then merged.
+     */
     @Override
-    public List<Level> list(@Nullable String viewerId, int page, int perPage) {
-        return requestDocuments(
-            collection.find(
-                Filters.or(
-                    Filters.eq("visibility", "public"),
-                    Filters.exists("players." + viewerId)
-                )
-            ).sort(Sorts.ascending("name"))
-             .skip(page * perPage)
-             .limit(perPage)
-        ).collect(Collectors.toList());
+    public LevelPage list(@Nullable String viewerId, @Nullable String cursor, int perPage) throws IllegalArgumentException {
+        final Bson after = after(cursor);
+        final List<LevelSummary> levels = summaries(Filters.eq("status", Status.PUBLIC.name()), after, perPage + 1);
+        if(viewerId != null) {
+            levels.addAll(summaries(Filters.and(Filters.eq("members", viewerId), Filters.ne("status", Status.PUBLIC.name())), after, perPage + 1));
+            levels.sort(LevelSummary.ORDER);
+        }
+        if(levels.size() <= perPage) {
+            return new LevelPage(levels, null);
+        }
+        final LevelSummary last = levels.get(perPage - 1);
+        final String next = last.getName() + SEPARATOR + last.getId();
+        return new LevelPage(new ArrayList<>(levels.subList(0, perPage)), Base64.getUrlEncoder().withoutPadding().encodeToString(next.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Get a filter that only matches levels after a cursor, or every level if there is no cursor.
+     */
+    private Bson after(@Nullable String cursor) throws IllegalArgumentException {
+        if(cursor == null) {
+            return new Document();
+        }
+        final String decoded;
+        try {
+            decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch(IllegalArgumentException invalid) {
+            throw new IllegalArgumentException("Level cursor '" + cursor + "' is not valid");
+        }
+        final int separator = decoded.indexOf(SEPARATOR);
+        if(separator < 0) {
+            throw new IllegalArgumentException("Level cursor '" + cursor + "' is not valid");
+        }
+        final String name = decoded.substring(0, separator);
+        final String id = decoded.substring(separator + 1);
+        return Filters.or(
+            Filters.gt("name", name),
+            Filters.and(Filters.eq("name", name), Filters.gt("_id", id))
+        );
+    }
+
+    /**
+     * Get the summaries of the first levels that match a filter, projected on the server.
+     */
+    private List<LevelSummary> summaries(Bson filter, Bson after, int limit) {
+        return request(
+            collection.aggregate(Arrays.asList(
+                Aggregates.match(Filters.and(filter, after)),
+                Aggregates.sort(Sorts.ascending("name", "_id")),
+                Aggregates.limit(limit),
+                Aggregates.project(Projections.fields(
+                    Projections.include("name", "status"),
+                    Projections.computed("members", new Document("$size", new Document("$ifNull", Arrays.asList("$members", Collections.emptyList()))))
+                ))
+            ))
+        ).map(document -> new LevelSummary(
+            document.getString("_id"),
+            document.getString("name"),
+            toStatus(document.getString("status")),
+            document.getInteger("members", 0)
+        )).collect(Collectors.toList());
+    }
+
+    private static Status toStatus(@Nullable String status) {
+        try {
+            return status == null ? Status.PRIVATE : Status.valueOf(status);
+        } catch(IllegalArgumentException unknown) {
+            return Status.PRIVATE;
+        }
     }
 
+    /**
+     * Upload the files of a world as a new snapshot.
+     *
+     * Each file is stored as a blob addressed by its content hash, which is shared
+     * by every snapshot of any level that includes the same file. Once every blob
+     * is stored, the manifest of the world is swapped to point at the new snapshot,
+     * and snapshots beyond the retention limit are deleted. If the upload fails,
+     * or another upload swapped the manifest first, the snapshot is deleted instead.
+     *
+     * Files are hashed and compressed concurrently, but the snapshot
+     * keeps the order in which the files were walked.
+     *
+     * Region files are packed into their occupied chunks instead of compressed,
+     * and their hash is of the packed region, since unpacking it does not
+     * restore the exact sectors of the original file.
+     */
     @Override
     public boolean upload(String id, File source) {
-        if(source.isDirectory() && source.listFiles().length > 0) {
-            deleteFile(id);
-            final GridFSUploadStream upload = bucket.openUploadStream(new BsonString(id), id);
-            try {
-                ZipOutputStream zip = new ZipOutputStream(upload);
-                Zip.compress(source, zip);
-                zip.close();
-            } catch(IOException ioe) {
-                ioe.printStackTrace();
+        if(!source.isDirectory()) return false;
+        final Document manifest = manifests.find(Filters.eq("_id", id)).first();
+        final Map<String, CompletableFuture<BsonValue>> references = new ConcurrentHashMap<>();
+        final List<Document> files;
+        try {
+            final List<Path> paths = walk(source);
+            final Compression compression = compression(id, paths.stream().mapToLong(path -> path.toFile().length()).sum());
+            files = workers.submit(() -> paths.parallelStream()
+                                              .map(path -> uploadFile(source, path, compression, references))
+                                              .collect(Collectors.toList())).get();
+        } catch(IOException | InterruptedException | ExecutionException error) {
+            error.printStackTrace();
+            blobs.release(referenced(references));
+            return false;
+        }
+        if(files.isEmpty()) return false;
+        final long revision = revision(manifest) + 1;
+        final ObjectId snapshot = new ObjectId();
+        try {
+            snapshots.insertOne(
+                new Document("_id", snapshot).append("level", id)
+                                             .append("revision", revision)
+                                             .append("created", new Date())
+                                             .append("files", files)
+            );
+            if(!swap(id, manifest, revision, snapshot, files)) {
+                abandon(snapshot, referenced(references));
                 return false;
             }
-            upload.close();
+        } catch(MongoException error) {
+            error.printStackTrace();
+            abandon(snapshot, referenced(references));
+            return false;
+        }
+        deleteLegacy(id, manifest);
+        prune(id, snapshot);
+        return true;
+    }
+
+    private Document uploadFile(File source, Path path, Compression compression, Map<String, CompletableFuture<BsonValue>> references) {
+        final File file = path.toFile();
+        try {
+            final byte[] region = Region.isRegion(file) ? Region.pack(file) : null;
+            final String hash = region != null ? Hashes.FUNCTION.hashBytes(region).toString() : Hashes.hash(file);
+            final CompletableFuture<BsonValue> reference = new CompletableFuture<>();
+            final CompletableFuture<BsonValue> existing = references.putIfAbsent(hash, reference);
+            final BsonValue blob;
+            if(existing != null) {
+                blob = existing.join();
+            } else {
+                try {
+                    blob = blobs.reference(hash, file, region, region != null ? Compressions.NONE : compression);
+                } catch(IOException | RuntimeException error) {
+                    reference.completeExceptionally(error);
+                    throw error;
+                }
+                reference.complete(blob);
+            }
+            return new Document("path", relativePath(source, path))
+                            .append("hash", hash)
+                            .append("size", file.length())
+                            .append("format", region != null ? REGION : FILE)
+                            .append("blob", blob);
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Get the hashes that were successfully referenced during an upload.
+     */
+    private static List<String> referenced(Map<String, CompletableFuture<BsonValue>> references) {
+        return references.entrySet().stream()
+                         .filter(entry -> entry.getValue().isDone() && !entry.getValue().isCompletedExceptionally())
+                         .map(Map.Entry::getKey)
+                         .collect(Collectors.toList());
+    }
+
+    /**
+     * Point the manifest of a world at a snapshot, which atomically
+     * replaces the files that are downloaded for the world.
+     *
+     * The manifest is only replaced if it is still the manifest that was read,
+     * so only one of concurrent swaps succeeds.
+     *
+     * @return Whether the manifest was replaced, or false if it changed since it was read.
+     */
+    private boolean swap(String id, @Nullable Document previous, long revision, ObjectId snapshot, List<Document> files) {
+        try {
+            manifests.replaceOne(
+                Filters.and(
+                    Filters.eq("_id", id),
+                    Filters.eq("snapshot", previous == null ? null : previous.get("snapshot")),
+                    Filters.eq("revision", previous == null ? null : previous.get("revision"))
+                ),
+                new Document("_id", id).append("revision", revision)
+                                       .append("snapshot", snapshot)
+                                       .append("created", new Date())
+                                       .append("files", files),
+                new ReplaceOptions().upsert(true)
+            );
             return true;
+        } catch(MongoWriteException error) {
+            if(error.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false; // Manifest changed, so the upsert collided with it
+            }
+            throw error;
         }
+    }
+
+    /**
+     * Delete a snapshot that was never swapped in, and release the blobs it referenced.
+     *
+     * If the snapshot could not be deleted, its references are kept,
+     * since they are released once the snapshot is pruned.
+     */
+    private void abandon(ObjectId snapshot, Collection<String> hashes) {
+        try {
+            snapshots.deleteOne(Filters.eq("_id", snapshot));
+            blobs.release(hashes);
+        } catch(MongoException error) {
+            error.printStackTrace();
+        }
+    }
+
+    /**
+     * Delete the snapshots of a world beyond the retention limit,
+     * except for the snapshot that the manifest points at.
+     */
+    private void prune(String id, ObjectId current) {
+        final List<Document> expired = snapshots.find(Filters.eq("level", id))
+                                                .sort(Sorts.descending("revision"))
+                                                .skip(retention)
+                                                .into(new ArrayList<>());
+        for(Document snapshot : expired) {
+            if(!current.equals(snapshot.getObjectId("_id"))) {
+                deleteSnapshot(snapshot);
+            }
+        }
+    }
+
+    private void deleteSnapshot(Document snapshot) {
+        if(snapshots.deleteOne(Filters.eq("_id", snapshot.getObjectId("_id"))).getDeletedCount() > 0) {
+            blobs.release(hashes(snapshot));
+        }
+    }
+
+    /**
+     * Delete the zip archive or blobs of a world that were uploaded before snapshots existed.
+     */
+    private void deleteLegacy(String id, @Nullable Document manifest) {
+        if(manifest == null) {
+            blobs.delete(new BsonString(id));
+        } else if(!manifest.containsKey("snapshot")) {
+            for(String hash : hashes(manifest)) {
+                blobs.delete(new BsonString(blobId(id, hash)));
+            }
+        }
+    }
+
+    /**
+     * Cloning adds a snapshot that references the blobs of the current
+     * snapshot of the template, so no files are uploaded.
+     */
+    @Override
+    public boolean clone(String template, String id) {
+        final Document manifest = manifests.find(Filters.eq("_id", template)).first();
+        if(manifest == null || !manifest.containsKey("snapshot")) return false; // Template must be uploaded as a snapshot first
+        final List<Document> files = files(manifest).stream()
+                                                    .filter(file -> LevelManifest.isShared(file.getString("path")))
+                                                    .collect(Collectors.toList());
+        final Set<String> hashes = files.stream().map(file -> file.getString("hash")).collect(Collectors.toSet());
+        if(!blobs.retain(hashes)) return false;
+        final ObjectId snapshot = new ObjectId();
+        try {
+            snapshots.insertOne(
+                new Document("_id", snapshot).append("level", id)
+                                             .append("revision", 1L)
+                                             .append("created", new Date())
+                                             .append("template", template)
+                                             .append("files", files)
+            );
+            if(swap(id, null, 1L, snapshot, files)) {
+                return true;
+            }
+        } catch(MongoException error) {
+            error.printStackTrace();
+        }
+        abandon(snapshot, hashes);
         return false;
     }
 
+    @Override
+    public List<LevelManifest> snapshots(String id) {
+        return snapshots.find(Filters.eq("level", id))
+                        .sort(Sorts.descending("revision"))
+                        .map(snapshot -> (LevelManifest) new MongoLevelManifest(id, snapshot))
+                        .into(new ArrayList<>());
+    }
+
+    /**
+     * Rolling back points the manifest at an older snapshot under a new revision,
+     * so cached copies of the world are downloaded again.
+     */
+    @Override
+    public boolean rollback(String id, String revision) {
+        final long target;
+        try {
+            target = Long.parseLong(revision);
+        } catch(NumberFormatException nfe) {
+            return false;
+        }
+        final Document snapshot = snapshots.find(Filters.and(Filters.eq("level", id), Filters.eq("revision", target))).first();
+        if(snapshot == null) return false;
+        final Document manifest = manifests.find(Filters.eq("_id", id)).first();
+        return swap(id, manifest, revision(manifest) + 1, snapshot.getObjectId("_id"), files(snapshot));
+    }
+
+    /**
+     * Download the files of a world from its manifest, or from
+     * a single zip archive if it was uploaded before manifests existed.
+     */
     @Override
     public boolean download(String id, File destination) {
+        final Optional<LevelManifest> manifest = manifest(id);
+        if(manifest.isPresent()) {
+            return manifest.get().download(destination, path -> true);
+        }
+        return downloadStaged(destination, staging -> downloadArchive(id, staging));
+    }
+
+    @Override
+    public Optional<LevelManifest> manifest(String id) {
+        final Document manifest = manifests.find(Filters.eq("_id", id)).first();
+        return manifest == null ? Optional.empty() : Optional.of(new MongoLevelManifest(id, manifest));
+    }
+
+    /**
+     * Get the revision of the manifest of a world, or the upload
+     * date of its zip archive if it was uploaded before manifests existed.
+     */
+    @Override
+    public Optional<String> revision(String id) {
+        try {
+            final Document manifest = manifests.find(Filters.eq("_id", id)).first();
+            if(manifest != null) {
+                return Optional.of(Long.toString(revision(manifest)));
+            }
+            final GridFSFile archive = bucket.find(Filters.eq("_id", id)).first();
+            if(archive != null) {
+                return Optional.of("archive-" + archive.getUploadDate().getTime());
+            }
+        } catch(MongoException me) {
+            me.printStackTrace();
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Download files into a staging folder, which then replaces the destination.
+     * A failed download leaves the destination as it was.
+     */
+    private boolean downloadStaged(File destination, StagedDownload download) {
+        final File staging = Folders.staging(destination);
+        try {
+            Folders.recover(destination);
+            FileUtils.deleteDirectory(staging);
+            if(!download.into(staging)) {
+                return true; // File was not found: 404
+            }
+            Folders.swap(destination);
+        } catch(IOException | InterruptedException | ExecutionException | MongoException error) {
+            error.printStackTrace();
+            return false;
+        } finally {
+            FileUtils.deleteQuietly(staging);
+        }
+        return true;
+    }
+
+    private boolean downloadArchive(String id, File staging) throws IOException {
+        final GridFSDownloadStream download;
         try {
-            final GridFSDownloadStream download = bucket.openDownloadStream(id);
-            destination.mkdirs();
-            final ZipInputStream zip = new ZipInputStream(download);
-            Zip.decompress(destination, zip);
-            zip.close();
-            download.close();
+            download = bucket.openDownloadStream(id);
         } catch(MongoGridFSException mgfse) {
-            return true; // File was not found: 404
-        } catch(IOException ioe) {
-            ioe.printStackTrace();
             return false;
         }
+        try(ZipInputStream zip = new ZipInputStream(download)) {
+            Zip.decompress(staging, id, zip);
+        }
         return true;
     }
 
+    /**
+     * Choose the compression of a world, which can be set for each level,
+     * or otherwise depends on whether the world is larger than a threshold.
+     */
+    private Compression compression(String id, long size) {
+        final String name = Settings.fetch("architect.compression." + id, size >= largeSize ? largeCompression : defaultCompression);
+        return Compressions.find(name).orElse(Compressions.DEFLATE);
+    }
+
+    private void downloadFile(String id, File root, Document file) {
+        try {
+            downloadBlob(id, file, resolve(root, file));
+        } catch(IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    /**
+     * Download the blob of a file, which is content addressed
+     * unless the file was uploaded before snapshots existed.
+     */
+    private void downloadBlob(String id, Document file, File destination) throws IOException {
+        final String hash = file.getString("hash");
+        final ObjectId blob = file.getObjectId("blob");
+        blobs.download(blob != null ? new BsonObjectId(blob) : new BsonString(blobId(id, hash)), hash, destination, REGION.equals(file.getString("format")));
+    }
+
+    private static List<Path> walk(File source) throws IOException {
+        try(Stream<Path> paths = Files.walk(source.toPath())) {
+            return paths.filter(Files::isRegularFile)
+                        .filter(path -> !path.getFileName().toString().equals("session.lock"))
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static File resolve(File root, Document file) throws IOException {
+        final Path base = root.toPath().toAbsolutePath().normalize();
+        final Path path = base.resolve(file.getString("path")).normalize();
+        if(!path.startsWith(base)) {
+            throw new IOException("File " + file.getString("path") + " is outside of the world folder");
+        }
+        return path.toFile();
+    }
+
+    private static String relativePath(File source, Path path) {
+        return source.toPath().relativize(path).toString().replace(File.separatorChar, '/');
+    }
+
+    private static String blobId(String id, String hash) {
+        return id + "/" + hash;
+    }
+
+    private static long revision(@Nullable Document manifest) {
+        final Number revision = manifest == null ? null : manifest.get("revision", Number.class);
+        return revision == null ? 0 : revision.longValue();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Document> files(@Nullable Document manifest) {
+        final List<Document> files = manifest == null ? null : (List<Document>) manifest.get("files");
+        return files == null ? Collections.emptyList() : files;
+    }
+
+    private static Set<String> hashes(@Nullable Document manifest) {
+        return files(manifest).stream()
+                              .map(file -> file.getString("hash"))
+                              .collect(Collectors.toSet());
+    }
+
+    private interface StagedDownload {
+
+        boolean into(File staging) throws IOException, InterruptedException, ExecutionException;
+
+    }
+
+    private class MongoLevelManifest implements LevelManifest {
+
+        private final String id;
+        private final Document manifest;
+
+        private MongoLevelManifest(String id, Document manifest) {
+            this.id = id;
+            this.manifest = manifest;
+        }
+
+        @Override
+        public String getRevision() {
+            return Long.toString(revision(manifest));
+        }
+
+        @Override
+        public @Nullable Date getCreated() {
+            return manifest.getDate("created");
+        }
+
+        @Override
+        public String getContent() {
+            final Hasher hasher = Hashes.FUNCTION.newHasher();
+            files(manifest).stream()
+                           .filter(file -> LevelManifest.isShared(file.getString("path")))
+                           .sorted(Comparator.comparing(file -> file.getString("path")))
+                           .forEach(file -> hasher.putString(file.getString("path"), StandardCharsets.UTF_8)
+                                                  .putByte((byte) 0)
+                                                  .putString(file.getString("hash"), StandardCharsets.UTF_8)
+                                                  .putByte((byte) 0));
+            return hasher.hash().toString();
+        }
+
+        @Override
+        public List<String> getPaths() {
+            return files(manifest).stream()
+                                  .map(file -> file.getString("path"))
+                                  .collect(Collectors.toList());
+        }
+
+        /**
+         * Files are downloaded concurrently and verified against their hashes.
+         */
+        @Override
+        public boolean download(File destination, Predicate<String> filter) {
+            return downloadStaged(destination, staging -> {
+                workers.submit(() -> files(manifest).parallelStream()
+                                                    .filter(file -> filter.test(file.getString("path")))
+                                                    .forEach(file -> downloadFile(id, staging, file))).get();
+                return true;
+            });
+        }
+
+        @Override
+        public boolean download(File destination, String path) {
+            final Optional<Document> file = files(manifest).stream()
+                                                           .filter(entry -> path.equals(entry.getString("path")))
+                                                           .findFirst();
+            if(!file.isPresent()) return false;
+            try {
+                final File target = resolve(destination, file.get());
+                final File part = new File(target.getParentFile(), "." + target.getName() + ".part");
+                downloadBlob(id, file.get(), part);
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch(IOException | MongoException error) {
+                error.printStackTrace();
+                return false;
+            }
+            return true;
+        }
+
+    }
+
 }
@@ -1,59 +1,109 @@
 package app.ashcon.architect.model.mongo;
 
 import app.ashcon.architect.model.Model;
+import app.ashcon.architect.model.ModelConflictException;
 import app.ashcon.architect.model.ModelStore;
+import app.ashcon.architect.model.ModelStoreException;
+import app.ashcon.architect.util.Settings;
+import app.ashcon.architect.util.conversion.CodecConversion;
 import app.ashcon.architect.util.conversion.Conversion;
-import app.ashcon.architect.util.conversion.ConversionImpl;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.MongoIterable;
 import com.mongodb.client.model.Filters;
-import com.mongodb.client.model.FindOneAndReplaceOptions;
 import com.mongodb.client.model.Projections;
-import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.ReplaceOptions;
 import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
 import com.mongodb.client.model.changestream.ChangeStreamDocument;
-import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.BSONException;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.bson.conversions.Bson;
+import org.bukkit.Bukkit;
 
+import javax.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class MongoModelStore<M extends Model> implements ModelStore<M> {
 
     protected final MongoCollection<Document> collection;
+    protected final MongoCollection<M> models;
+    protected final MongoCollection<RawBsonDocument> documents;
     protected final Conversion<M> conversion;
     protected final Cache<String, M> cache;
+    protected final List<BiConsumer<String, M>> listeners;
+    protected final Set<String> watched;
+    protected final MongoWatcher watcher;
+    protected final @Nullable MongoWriteBuffer<M> buffer;
+    protected final @Nullable MongoBatchLoader<M> loader;
+    protected final int batchSize;
+    protected final int cursorSize;
 
-    protected MongoModelStore(Class<M> clazz, MongoCollection<Document> collection) {
+    protected MongoModelStore(Class<M> clazz, MongoCollection<Document> collection, MongoWatcher watcher) {
         this.collection = collection;
-        this.conversion = new ConversionImpl<>(clazz);
+        this.models = collection.withDocumentClass(clazz);
+        this.documents = collection.withDocumentClass(RawBsonDocument.class);
+        this.conversion = new CodecConversion<>(clazz, collection.getCodecRegistry());
         this.cache = CacheBuilder.newBuilder()
                                  .expireAfterWrite(15, TimeUnit.MINUTES)
                                  .initialCapacity(16)
                                  .softValues()
                                  .build();
-        new Thread(() -> this.collection.watch().fullDocument(FullDocument.UPDATE_LOOKUP).forEach((Consumer<ChangeStreamDocument<Document>>) event -> {
-            final Document document = event.getFullDocument();
-            if(document != null) {
-                final Object id = document.get("_id");
-                if(id != null && cache.getIfPresent(id) != null) {
-                    cache.put(id.toString(), conversion.toObject(document));
-                }
-            }
-        })).start();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.watched = ConcurrentHashMap.newKeySet();
+        this.watcher = watcher;
+        this.batchSize = Settings.fetchInt("architect.find.batch", 500);
+        this.cursorSize = Settings.fetchInt("architect.find.cursor", 100);
+        final long window = Settings.fetchLong("architect.find.window", 0);
+        this.loader = window < 0 ? null : new MongoBatchLoader<>(this::findAll, window, batchSize);
+        final long delay = Settings.fetchLong("architect.write.delay", 0);
+        this.buffer = delay <= 0 ? null : new MongoWriteBuffer<>(collection, conversion, cache::invalidate, delay, Settings.fetchInt("architect.write.batch", 100));
+        this.watcher.register(collection.getNamespace().getCollectionName(), this::interests, this::change, cache::invalidateAll);
     }
 
     @Override
     public Optional<M> find(String id) {
         if(id == null) return Optional.empty();
-        return requestDocument(collection.find(Filters.eq("_id", id)));
+        if(buffer != null) {
+            return buffer.find(id, () -> requestDocument(documents.find(Filters.eq("_id", id))));
+        }
+        return requestDocument(documents.find(Filters.eq("_id", id)));
     }
 
     @Override
@@ -61,72 +111,375 @@ public class MongoModelStore<M extends Model> implements ModelStore<M> {
         if(id == null) return Optional.empty();
         M cached = cache.getIfPresent(id);
         if(cached == null) {
-            Optional<M> result = find(id);
-            result.ifPresent(model -> cache.put(id, model));
+            Optional<M> result = loader == null ? find(id) : loader.load(id);
+            result.ifPresent(model -> {
+                cache.put(id, model);
+                watcher.refresh();
+            });
             return result;
         }
         return Optional.of(cached);
     }
 
     @Override
-    public M update(M model) {
-        return toObject(
-            collection.findOneAndReplace(
-                Filters.eq("_id", model.getId()),
-                conversion.toDocument(model),
-                new FindOneAndReplaceOptions().upsert(true).returnDocument(ReturnDocument.AFTER)
-            )
-        ).findFirst()
-         .orElseThrow(() -> new IllegalStateException("Unable to update model: " + model));
+    public Map<String, M> findAll(Collection<String> ids) {
+        final Set<String> remaining = new LinkedHashSet<>(ids);
+        remaining.remove(null);
+        final Map<String, M> found = new HashMap<>(remaining.size());
+        if(buffer != null) {
+            buffer.findAll(remaining).forEach((id, model) -> {
+                remaining.remove(id);
+                model.ifPresent(buffered -> found.put(id, buffered));
+            });
+        }
+        for(List<String> batch : Iterables.partition(remaining, batchSize)) {
+            requestDocuments(documents.find(Filters.in("_id", batch))).forEach(model -> found.put(model.getId(), model));
+        }
+        return found;
+    }
+
+    @Override
+    public Map<String, M> findAllCached(Collection<String> ids) {
+        final Set<String> remaining = new LinkedHashSet<>(ids);
+        remaining.remove(null);
+        final Map<String, M> found = new HashMap<>(cache.getAllPresent(remaining));
+        remaining.removeAll(found.keySet());
+        if(!remaining.isEmpty()) {
+            final Map<String, M> loaded = findAll(remaining);
+            cache.putAll(loaded);
+            found.putAll(loaded);
+            watcher.refresh();
+        }
+        return found;
+    }
+
+    @Override
+    public M update(M model) throws ModelConflictException {
+        final Set<String> changes = model.popChanges();
+        if(changes != null && changes.isEmpty()) {
+            return model;
+        }
+        try {
+            return write(model, changes);
+        } catch(RuntimeException error) {
+            model.restoreChanges(changes); // Send the changes again with the next update
+            throw error;
+        }
+    }
+
+    private M write(M model, @Nullable Set<String> changes) throws ModelConflictException {
+        if(buffer != null) {
+            buffer.write(model, changes);
+            return cache(model);
+        } else if(changes == null) {
+            return replace(model);
+        }
+        final long version = model.getVersion();
+        write(model, version, () -> collection.updateOne(
+            expect(model.getId(), version),
+            toUpdate(conversion.toDocument(model), changes, version + 1),
+            new UpdateOptions().upsert(false) // A patch of a deleted model must not insert a partial model
+        ));
+        model.setVersion(version + 1);
+        return cache(model);
+    }
+
+    /**
+     * Replace the entire model in the store, or insert it if it is new.
+     *
+     * @param model The model.
+     * @throws ModelConflictException If the stored version is different.
+     * @return An updated model.
+     */
+    protected M replace(M model) throws ModelConflictException {
+        final long version = model.getVersion();
+        model.setVersion(version + 1);
+        try {
+            write(model, version, () -> models.replaceOne(
+                expect(model.getId(), version),
+                model,
+                new ReplaceOptions().upsert(true)
+            ));
+        } catch(RuntimeException error) {
+            model.setVersion(version);
+            throw error;
+        }
+        return cache(model);
+    }
+
+    /**
+     * Get a filter that only matches a model with an expected version,
+     * where models without a version have version 0.
+     *
+     * @param id The model ID.
+     * @param version The expected version.
+     * @return The filter.
+     */
+    static Bson expect(String id, long version) {
+        if(version == 0) {
+            return Filters.and(Filters.eq("_id", id), Filters.or(Filters.exists("version", false), Filters.eq("version", 0L)));
+        }
+        return Filters.and(Filters.eq("_id", id), Filters.eq("version", version));
+    }
+
+    /**
+     * Get an update that sets the changed fields of a document, or unsets them if they were removed.
+     *
+     * @param document The document of the model.
+     * @param changes The changed fields, which may be nested.
+     * @param version The new version of the model.
+     * @return The update.
+     */
+    static Bson toUpdate(Document document, Set<String> changes, long version) {
+        final List<Bson> updates = new ArrayList<>(changes.size() + 1);
+        for(String field : changes) {
+            if(isNested(field, changes)) continue;
+            final Object value = getField(document, field);
+            updates.add(value == null ? Updates.unset(field) : Updates.set(field, value));
+        }
+        updates.add(Updates.set("version", version));
+        return Updates.combine(updates);
+    }
+
+    /**
+     * Run a conditional write of a model, which either matches
+     * the expected version or, if it is a replace, inserts the model.
+     *
+     * If another version is stored, the write fails to match it
+     * and then fails to insert a model with the same ID. If a patch
+     * matches nothing, the model was changed or deleted since.
+     */
+    private void write(M model, long version, Supplier<UpdateResult> write) throws ModelConflictException {
+        final UpdateResult result;
+        try {
+            result = write.get();
+        } catch(MongoWriteException error) {
+            if(error.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                throw new ModelConflictException(model.getId(), version);
+            }
+            throw error;
+        }
+        if(result.getMatchedCount() == 0 && result.getUpsertedId() == null) {
+            throw new ModelConflictException(model.getId(), version);
+        }
+    }
+
+    /**
+     * Put a model in the cache if it is cached, unless the cached model is newer.
+     */
+    private M cache(M model) {
+        cache.asMap().computeIfPresent(model.getId(), (id, cached) -> cached.getVersion() >= model.getVersion() ? cached : model);
+        return model;
     }
 
     @Override
     public void delete(String id) {
         if(id == null) return;
         cache.invalidate(id);
-        collection.deleteOne(Filters.eq("_id", id));
+        if(buffer != null) {
+            buffer.delete(id);
+        } else {
+            collection.deleteOne(Filters.eq("_id", id));
+        }
     }
 
     @Override
-    public List<M> search(String name) {
-        return request(
-            collection.find(Filters.text(name))
-                      .limit(5)
-                      .projection(Projections.metaTextScore("score"))
-                      .sort(Sorts.metaTextScore("score"))
-        ).flatMap(this::toObject)
-         .collect(Collectors.toList());
+    public void flush() throws IllegalStateException {
+        if(buffer != null) {
+            buffer.flush();
+        }
     }
 
-    protected <R> Stream<R> request(MongoIterable<R> cursor) {
-        Stream.Builder<R> builder = Stream.builder();
-        try {
-            for(R result : cursor) {
-                builder.accept(result);
-            }
-        } catch(NoSuchElementException empty) {
-            // Keep stream empty if nothing was found.
-        } catch(Throwable error) {
-            error.printStackTrace();
+    @Override
+    public void subscribe(BiConsumer<String, M> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void watch(String id) {
+        if(id != null && watched.add(id)) {
+            watcher.refresh();
+        }
+    }
+
+    @Override
+    public void unwatch(String id) {
+        if(id != null) {
+            watched.remove(id);
         }
-        return builder.build();
     }
 
-    protected Stream<M> requestDocuments(MongoIterable<Document> cursor) {
-        return request(cursor).flatMap(this::toObject);
+    @Override
+    public List<M> search(String name) {
+        return requestDocuments(
+            documents.find(Filters.text(name))
+                  .limit(5)
+                  .projection(Projections.metaTextScore("score"))
+                  .sort(Sorts.metaTextScore("score"))
+        ).collect(Collectors.toList());
+    }
+
+    /**
+     * Request the results of a query as a lazy stream, which only opens the cursor once it is consumed
+     * and closes it once it is exhausted, fails, or the stream is closed.
+     *
+     * @param query The query.
+     * @throws ModelStoreException When the stream is consumed, if the query failed.
+     * @return A stream of results.
+     */
+    protected <R> Stream<R> request(MongoIterable<R> query) {
+        final CursorIterator<R> iterator = new CursorIterator<>(query.batchSize(cursorSize));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                            .onClose(iterator::close);
+    }
+
+    /**
+     * Request the models of a query as a lazy stream, decoding each of them separately,
+     * so a document that can not be decoded is logged and skipped instead of failing the query.
+     *
+     * @see #request(MongoIterable)
+     * @param query The query.
+     * @throws ModelStoreException When the stream is consumed, if the query failed.
+     * @return A stream of models.
+     */
+    protected Stream<M> requestDocuments(MongoIterable<RawBsonDocument> query) {
+        return request(query).flatMap(this::toObject);
     }
 
-    protected Optional<M> requestDocument(MongoIterable<Document> cursor) {
-        return requestDocuments(cursor).findFirst();
+    /**
+     * Request the first result of a query, which is limited to one result.
+     *
+     * @param query The query.
+     * @throws ModelStoreException If the query failed.
+     * @return An optional result.
+     */
+    protected Optional<M> requestDocument(FindIterable<RawBsonDocument> query) {
+        try(Stream<M> results = requestDocuments(query.limit(1))) {
+            return results.findFirst(); // Closes the cursor, which is not exhausted by finding the first result
+        }
     }
 
-    protected Stream<M> toObject(Document document) {
+    /**
+     * Decode a model from a document.
+     *
+     * @param document The document.
+     * @return A stream of the model, or an empty stream if the document could not be decoded.
+     */
+    protected Stream<M> toObject(BsonDocument document) {
         try {
             return Stream.of(conversion.toObject(document));
-        } catch(Throwable err) {
-            err.printStackTrace();
+        } catch(RuntimeException error) {
+            Bukkit.getLogger().log(Level.WARNING, "Could not decode " + document.get("_id") + " from " + collection.getNamespace() + ", skipping it", error);
             return Stream.empty();
         }
     }
 
+    /**
+     * Get the IDs of the models that changes are dispatched for,
+     * which are the cached models and the watched models.
+     */
+    private Collection<String> interests() {
+        final Set<String> ids = new HashSet<>(cache.asMap().keySet());
+        ids.addAll(watched);
+        return ids;
+    }
+
+    private void change(ChangeStreamDocument<RawBsonDocument> event) {
+        final BsonValue key = event.getDocumentKey() == null ? null : event.getDocumentKey().get("_id");
+        if(key == null) return;
+        final String id = key.isString() ? key.asString().getValue() : key.toString();
+        final boolean cached = cache.getIfPresent(id) != null;
+        if(!cached && !watched.contains(id)) return;
+        final RawBsonDocument document = event.getFullDocument();
+        final M model;
+        if(document != null) {
+            model = toObject(document).findFirst().orElse(null);
+            if(model == null) return;
+        } else if(event.getOperationType() == OperationType.DELETE) {
+            model = null;
+        } else {
+            return;
+        }
+        if(model == null) {
+            cache.invalidate(id);
+        } else {
+            cache(model);
+        }
+        listeners.forEach(listener -> listener.accept(id, model));
+    }
+
+    private static boolean isNested(String field, Set<String> fields) {
+        for(int dot = field.indexOf('.'); dot >= 0; dot = field.indexOf('.', dot + 1)) {
+            if(fields.contains(field.substring(0, dot))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object getField(Document document, String field) {
+        Object value = document;
+        for(String key : field.split("\\.")) {
+            if(!(value instanceof Map)) {
+                return null;
+            }
+            value = ((Map<?, ?>) value).get(key);
+        }
+        return value;
+    }
+
+    /**
+     * Iterates over a cursor that is opened on first use, and closed once it is exhausted or fails,
+     * including when a batch of results could not be decoded.
+     */
+    private static class CursorIterator<R> implements Iterator<R> {
+
+        private final MongoIterable<R> query;
+        private MongoCursor<R> cursor;
+        private boolean closed;
+
+        private CursorIterator(MongoIterable<R> query) {
+            this.query = query;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(closed) return false;
+            try {
+                if(cursor == null) {
+                    cursor = query.iterator();
+                }
+                if(cursor.hasNext()) {
+                    return true;
+                }
+            } catch(MongoException | BSONException | CodecConfigurationException error) {
+                close();
+                throw new ModelStoreException("Could not query the store", error);
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        public R next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return cursor.next();
+            } catch(MongoException | BSONException | CodecConfigurationException error) {
+                close();
+                throw new ModelStoreException("Could not query the store", error);
+            }
+        }
+
+        private void close() {
+            closed = true;
+            if(cursor != null) {
+                cursor.close();
+            }
+        }
+
+    }
+
 }
@@ -2,6 +2,8 @@ package app.ashcon.architect.model.mongo;
 
 import app.ashcon.architect.level.LevelStore;
 import app.ashcon.architect.user.UserStore;
+import app.ashcon.architect.util.Settings;
+import app.ashcon.architect.util.conversion.Codecs;
 import com.mongodb.ConnectionString;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
@@ -10,6 +12,7 @@ import dagger.Binds;
 import dagger.Module;
 import dagger.Provides;
 
+import javax.inject.Singleton;
 import java.util.logging.Logger;
 
 @Module
@@ -24,25 +27,19 @@ public interface MongoModule {
     @Provides
     static ConnectionString provideConnectionString() {
         Logger.getLogger("org.mongodb").setLevel(java.util.logging.Level.WARNING);
-        return new ConnectionString(fetchSetting("mongo.uri", "mongodb://localhost:27017/?replicaSet=rs0"));
+        return new ConnectionString(Settings.fetch("mongo.uri", "mongodb://localhost:27017/?replicaSet=rs0"));
     }
 
     @Provides
+    @Singleton
     static MongoClient provideMongoClient(ConnectionString uri) {
         return MongoClients.create(uri);
     }
 
     @Provides
+    @Singleton
     static MongoDatabase provideMongoDatabase(MongoClient client) {
-        return client.getDatabase("architect");
-    }
-
-    static String fetchSetting(String key, String def) {
-        String env = System.getenv(key.replaceAll("\\.", "_").toUpperCase());
-        if(env == null) {
-            env = System.getProperty(key.toLowerCase(), def);
-        }
-        return env;
+        return client.getDatabase("architect").withCodecRegistry(Codecs.registry());
     }
 
 }
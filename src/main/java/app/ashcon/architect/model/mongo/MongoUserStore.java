@@ -12,8 +12,8 @@ import java.util.UUID;
 @Singleton
 public class MongoUserStore extends MongoModelStore<User> implements UserStore {
 
-    @Inject MongoUserStore(MongoDatabase db) {
-        super(User.class, db.getCollection("users"));
+    @Inject MongoUserStore(MongoDatabase db, MongoWatcher watcher) {
+        super(User.class, db.getCollection("users"), watcher);
         this.collection.createIndex(Indexes.text("username"));
     }
 
@@ -21,7 +21,7 @@ public class MongoUserStore extends MongoModelStore<User> implements UserStore {
     public User login(String uuid, String username) {
         return find(uuid).orElseGet(() -> {
             User user = new User(UUID.fromString(uuid), username, null);
-            collection.insertOne(conversion.toDocument(user));
+            models.insertOne(user);
             return user;
         });
     }
@@ -0,0 +1,212 @@
+package app.ashcon.architect.model.mongo;
+
+import app.ashcon.architect.util.Settings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoException;
+import com.mongodb.MongoQueryException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Watches the changes of every collection in the database with one change stream,
+ * and dispatches them to the listener of their collection.
+ *
+ * Changes are filtered by the server, so only the changes of documents
+ * that a listener is interested in are sent, unless there are too many
+ * of them to filter by. The stream is opened again whenever the interests
+ * change, and resumed after the last change if the connection is lost,
+ * or from the time it was first opened if there were no changes yet.
+ * If it cannot be resumed, every listener is reset instead.
+ */
+@Singleton
+public class MongoWatcher {
+
+    private static final List<String> OPERATIONS = Arrays.asList("insert", "update", "replace", "delete");
+    private static final List<Integer> FATAL_ERRORS = Arrays.asList(136, 280, 286); // Capped position lost, fatal change stream error, history lost
+
+    private final MongoDatabase db;
+    private final Map<String, Watch> watches;
+    private final ExecutorService executor;
+    private final int maxIds;
+    private final long retry;
+    private final long maxRetry;
+    private volatile boolean dirty;
+    private volatile boolean running;
+    private BsonDocument resumeToken;
+    private BsonTimestamp startTime;
+    private Thread thread;
+
+    @Inject MongoWatcher(MongoDatabase db) {
+        this.db = db;
+        this.watches = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setNameFormat("architect-watch-%d").setDaemon(true).build());
+        this.maxIds = Settings.fetchInt("architect.watch.ids", 10000);
+        this.retry = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.watch.retry", 1));
+        this.maxRetry = TimeUnit.SECONDS.toMillis(Settings.fetchLong("architect.watch.retry.max", 60));
+    }
+
+    /**
+     * Watch the changes of a collection, starting the change stream if it is not started.
+     *
+     * @param collection The name of the collection.
+     * @param ids The IDs of the documents to watch, which must be safe to read from another thread.
+     * @param listener The listener of changes, which is called in order on a background thread.
+     * @param reset The listener of lost changes, which should forget any documents it holds.
+     */
+    public synchronized void register(String collection, Supplier<Collection<String>> ids, Consumer<ChangeStreamDocument<RawBsonDocument>> listener, Runnable reset) {
+        watches.put(collection, new Watch(ids, listener, reset));
+        dirty = true;
+        if(thread == null) {
+            running = true;
+            thread = new Thread(this::run, "architect-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Open the change stream again once the IDs of a watch changed,
+     * which happens at most once every poll of the stream.
+     */
+    public void refresh() {
+        dirty = true;
+    }
+
+    /**
+     * Stop watching changes, typically because the server is stopping.
+     */
+    public synchronized void shutdown() {
+        running = false;
+        if(thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+        executor.shutdownNow();
+    }
+
+    private void run() {
+        long delay = retry;
+        while(running) {
+            try {
+                dirty = false;
+                if(resumeToken == null && startTime == null) {
+                    startTime = operationTime();
+                }
+                final ChangeStreamIterable<RawBsonDocument> changes = db.watch(pipeline(), RawBsonDocument.class)
+                                                                        .fullDocument(FullDocument.UPDATE_LOOKUP)
+                                                                        .maxAwaitTime(1, TimeUnit.SECONDS);
+                if(resumeToken != null) {
+                    changes.resumeAfter(resumeToken);
+                } else if(startTime != null) {
+                    changes.startAtOperationTime(startTime);
+                }
+                try(MongoCursor<ChangeStreamDocument<RawBsonDocument>> stream = changes.iterator()) {
+                    delay = retry;
+                    while(running && !dirty) {
+                        final ChangeStreamDocument<RawBsonDocument> change = stream.tryNext();
+                        if(change != null) {
+                            resumeToken = change.getResumeToken();
+                            dispatch(change);
+                        }
+                    }
+                }
+            } catch(RuntimeException error) {
+                if(!running) return;
+                if(error instanceof MongoException && isFatal((MongoException) error)) {
+                    resumeToken = null;
+                    startTime = null;
+                    watches.values().forEach(watch -> executor.execute(watch.reset));
+                }
+                error.printStackTrace();
+                try {
+                    Thread.sleep(delay);
+                } catch(InterruptedException interrupted) {
+                    return;
+                }
+                delay = Math.min(delay * 2, maxRetry);
+            }
+        }
+    }
+
+    private List<Bson> pipeline() {
+        final Set<String> ids = new HashSet<>();
+        for(Watch watch : watches.values()) {
+            ids.addAll(watch.ids.get());
+            if(ids.size() > maxIds) break;
+        }
+        final List<Bson> filters = new ArrayList<>(3);
+        filters.add(Filters.in("operationType", OPERATIONS));
+        filters.add(Filters.in("ns.coll", new ArrayList<>(watches.keySet())));
+        if(ids.size() <= maxIds) {
+            filters.add(Filters.in("documentKey._id", ids));
+        }
+        return Arrays.asList(Aggregates.match(Filters.and(filters)));
+    }
+
+    private void dispatch(ChangeStreamDocument<RawBsonDocument> change) {
+        final Watch watch = change.getNamespace() == null ? null : watches.get(change.getNamespace().getCollectionName());
+        if(watch == null) return;
+        executor.execute(() -> {
+            try {
+                watch.listener.accept(change);
+            } catch(Throwable error) {
+                error.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Get the time of the latest operation that the server has seen,
+     * so a stream opened later can start from it without missing changes.
+     */
+    private @Nullable BsonTimestamp operationTime() {
+        return db.runCommand(new Document("isMaster", 1)).get("operationTime", BsonTimestamp.class);
+    }
+
+    private static boolean isFatal(MongoException error) {
+        return (error instanceof MongoCommandException || error instanceof MongoQueryException) && FATAL_ERRORS.contains(error.getCode());
+    }
+
+    private static class Watch {
+
+        private final Supplier<Collection<String>> ids;
+        private final Consumer<ChangeStreamDocument<RawBsonDocument>> listener;
+        private final Runnable reset;
+
+        private Watch(Supplier<Collection<String>> ids, Consumer<ChangeStreamDocument<RawBsonDocument>> listener, Runnable reset) {
+            this.ids = ids;
+            this.listener = listener;
+            this.reset = reset;
+        }
+
+    }
+
+}
@@ -0,0 +1,335 @@
+package app.ashcon.architect.model.mongo;
+
+import app.ashcon.architect.model.Model;
+import app.ashcon.architect.model.ModelConflictException;
+import app.ashcon.architect.util.conversion.Conversion;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bukkit.Bukkit;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+/**
+ * Buffers the writes of {@link Model}s, and flushes them in the background
+ * as unordered bulk writes once there are enough of them or after a delay.
+ *
+ * Writes of the same model are coalesced into one write, and models are
+ * found from the buffer until they are flushed, so reads always see the
+ * writes that were buffered. Since writes are only checked for conflicts
+ * when they are flushed, models that conflict are logged and forgotten instead,
+ * as are models whose writes keep failing or can never succeed.
+ */
+class MongoWriteBuffer<M extends Model> {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int MAX_RETRIES = 10;
+
+    private final MongoCollection<Document> collection;
+    private final Conversion<M> conversion;
+    private final Consumer<String> conflict;
+    private final long delay;
+    private final int batch;
+    private final Map<String, Write> pending;
+    private final Map<String, Write> inflight;
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean scheduled;
+
+    MongoWriteBuffer(MongoCollection<Document> collection, Conversion<M> conversion, Consumer<String> conflict, long delay, int batch) {
+        this.collection = collection;
+        this.conversion = conversion;
+        this.conflict = conflict;
+        this.delay = delay;
+        this.batch = batch;
+        this.pending = new ConcurrentHashMap<>();
+        this.inflight = new ConcurrentHashMap<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("architect-write-%d").setDaemon(true).build());
+        this.scheduled = new AtomicBoolean();
+    }
+
+    /**
+     * Buffer a write of a model, which is coalesced with any buffered write of the same model.
+     *
+     * @param model The model, which gets the version it will be stored with.
+     * @param changes The changed fields, or null to replace the whole model.
+     * @throws ModelConflictException If the model is older than its buffered write.
+     */
+    void write(M model, @Nullable Set<String> changes) throws ModelConflictException {
+        pending.compute(model.getId(), (id, older) -> {
+            final boolean exists = older != null && older.document != null;
+            final long version = model.getVersion();
+            if(exists && version != older.version + 1) {
+                throw new ModelConflictException(id, version);
+            }
+            final long expected = exists ? older.version : version;
+            model.setVersion(expected + 1);
+            final Write newer = new Write(expected, conversion.toDocument(model), changes, 0);
+            return older == null ? newer : merge(older, newer);
+        });
+        schedule();
+    }
+
+    /**
+     * Buffer a delete of a model, which replaces any buffered write of the same model.
+     *
+     * @param id The model ID.
+     */
+    void delete(String id) {
+        pending.put(id, new Write(0, null, null, 0));
+        schedule();
+    }
+
+    /**
+     * Find a model from its buffered write, or from the store if it has none.
+     *
+     * @param id The model ID.
+     * @param stored The model from the store.
+     * @return An optional model.
+     */
+    Optional<M> find(String id, Supplier<Optional<M>> stored) {
+        final Write write = buffered(id);
+        if(write == null) {
+            return stored.get();
+        }
+        return write.document == null ? Optional.empty() : Optional.of(conversion.toObject(write.document));
+    }
+
+    /**
+     * Find the models that have buffered writes.
+     *
+     * @param ids The model IDs.
+     * @return The buffered models by their ID, which are empty if they are deleted.
+     */
+    Map<String, Optional<M>> findAll(Collection<String> ids) {
+        final Map<String, Optional<M>> found = new HashMap<>();
+        for(String id : ids) {
+            final Write write = buffered(id);
+            if(write != null) {
+                found.put(id, write.document == null ? Optional.empty() : Optional.of(conversion.toObject(write.document)));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Flush every buffered write and wait for them.
+     *
+     * @throws IllegalStateException If some writes could not be flushed, which stay buffered.
+     */
+    void flush() throws IllegalStateException {
+        try {
+            executor.submit(() -> {
+                for(int attempt = 0; attempt < MAX_ATTEMPTS && !pending.isEmpty(); attempt++) {
+                    flushBatch();
+                }
+            }).get(30, TimeUnit.SECONDS);
+        } catch(InterruptedException | ExecutionException | TimeoutException error) {
+            throw new IllegalStateException("Could not flush " + pending.size() + " buffered writes to " + collection.getNamespace(), error);
+        }
+        if(!pending.isEmpty()) {
+            throw new IllegalStateException("Could not flush " + pending.size() + " buffered writes to " + collection.getNamespace());
+        }
+    }
+
+    private void schedule() {
+        if(pending.size() >= batch) {
+            executor.execute(this::flushBatch);
+        } else if(scheduled.compareAndSet(false, true)) {
+            executor.schedule(this::flushBatch, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushBatch() {
+        scheduled.set(false);
+        final List<String> ids = new ArrayList<>();
+        final List<Write> writes = new ArrayList<>();
+        for(String key : pending.keySet()) {
+            if(writes.size() >= batch) break;
+            pending.computeIfPresent(key, (id, write) -> {
+                inflight.put(id, write); // Before it is removed, so it can always be found
+                ids.add(id);
+                writes.add(write);
+                return null;
+            });
+        }
+        if(writes.isEmpty()) return;
+        final List<WriteModel<Document>> requests = new ArrayList<>(writes.size());
+        for(int i = 0; i < writes.size(); i++) {
+            requests.add(writes.get(i).toRequest(ids.get(i)));
+        }
+        final Set<Integer> failures = new HashSet<>();
+        try {
+            unmatched(ids, writes, failures, collection.bulkWrite(requests, new BulkWriteOptions().ordered(false)));
+        } catch(MongoBulkWriteException error) {
+            for(BulkWriteError failed : error.getWriteErrors()) {
+                final String id = ids.get(failed.getIndex());
+                failures.add(failed.getIndex());
+                if(failed.getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                    Bukkit.getLogger().warning("Dropped a buffered write: " + new ModelConflictException(id, writes.get(failed.getIndex()).version).getMessage());
+                    conflict.accept(id);
+                } else if(failed.getCategory() == ErrorCategory.EXECUTION_TIMEOUT) {
+                    retry(id, writes.get(failed.getIndex()));
+                } else {
+                    drop(id, failed.getCode() + " " + failed.getMessage()); // Invalid or too large, so it would fail again
+                }
+            }
+            unmatched(ids, writes, failures, error.getWriteResult());
+        } catch(MongoException error) {
+            Bukkit.getLogger().log(Level.WARNING, "Could not flush " + writes.size() + " buffered writes to " + collection.getNamespace() + ", retrying", error);
+            for(int i = 0; i < writes.size(); i++) {
+                retry(ids.get(i), writes.get(i));
+            }
+        } finally {
+            for(int i = 0; i < writes.size(); i++) {
+                inflight.remove(ids.get(i), writes.get(i));
+            }
+        }
+        if(!pending.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Forget the models whose patches matched nothing, since patches are not upserted,
+     * so those models were changed or deleted since their version was read.
+     *
+     * Only the models of the batch are queried, and only if fewer writes matched than expected.
+     */
+    private void unmatched(List<String> ids, List<Write> writes, Set<Integer> failures, BulkWriteResult result) {
+        final Map<String, Write> patches = new HashMap<>();
+        int expected = 0;
+        for(int i = 0; i < writes.size(); i++) {
+            final Write write = writes.get(i);
+            if(write.document == null || failures.contains(i)) continue;
+            expected++;
+            if(write.changes != null) {
+                patches.put(ids.get(i), write);
+            }
+        }
+        if(patches.isEmpty() || result.getMatchedCount() + result.getUpserts().size() >= expected) return;
+        try {
+            for(Document stored : collection.find(Filters.in("_id", patches.keySet())).projection(Projections.include("version"))) {
+                final Number version = stored.get("version", Number.class);
+                final Write patch = patches.get(String.valueOf(stored.get("_id")));
+                if(patch != null && version != null && version.longValue() > patch.version) {
+                    patches.remove(String.valueOf(stored.get("_id")));
+                }
+            }
+        } catch(MongoException error) {
+            Bukkit.getLogger().log(Level.WARNING, "Could not check " + patches.size() + " buffered writes to " + collection.getNamespace() + ", forgetting them", error);
+            patches.keySet().forEach(conflict);
+            return;
+        }
+        patches.forEach((id, patch) -> {
+            Bukkit.getLogger().warning("Dropped a buffered write: " + new ModelConflictException(id, patch.version).getMessage());
+            conflict.accept(id);
+        });
+    }
+
+    private @Nullable Write buffered(String id) {
+        final Write write = pending.get(id);
+        return write == null ? inflight.get(id) : write;
+    }
+
+    /**
+     * Buffer a write that failed again, unless it already failed too many times.
+     */
+    private void retry(String id, Write write) {
+        if(write.attempts + 1 >= MAX_RETRIES) {
+            drop(id, "failed " + MAX_RETRIES + " times");
+            return;
+        }
+        final Write failed = new Write(write.version, write.document, write.changes, write.attempts + 1);
+        pending.merge(id, failed, (newer, older) -> merge(older, newer));
+    }
+
+    /**
+     * Forget a write that can not be flushed, so the model is read from the store again.
+     */
+    private void drop(String id, String reason) {
+        Bukkit.getLogger().severe("Dropped a buffered write of " + id + " to " + collection.getNamespace() + ": " + reason);
+        conflict.accept(id);
+    }
+
+    /**
+     * Coalesce a write with the write that followed it,
+     * keeping the failed attempts of either of them.
+     */
+    private Write merge(Write older, Write newer) {
+        final int attempts = Math.max(older.attempts, newer.attempts);
+        if(newer.document == null) {
+            return new Write(newer.version, null, null, attempts);
+        } else if(older.document == null) {
+            return new Write(newer.version, newer.document, null, attempts);
+        } else if(older.changes == null || newer.changes == null) {
+            return new Write(older.version, newer.document, null, attempts);
+        }
+        final Set<String> changes = new HashSet<>(older.changes);
+        changes.addAll(newer.changes);
+        return new Write(older.version, newer.document, changes, attempts);
+    }
+
+    private static class Write {
+
+        private final long version;
+        private final @Nullable Document document;
+        private final @Nullable Set<String> changes;
+        private final int attempts;
+
+        /**
+         * @param version The version that is expected to be stored.
+         * @param document The latest document of the model, or null to delete it.
+         * @param changes The changed fields, or null to replace the whole model.
+         * @param attempts The number of times the write already failed.
+         */
+        private Write(long version, @Nullable Document document, @Nullable Set<String> changes, int attempts) {
+            this.version = version;
+            this.document = document;
+            this.changes = changes;
+            this.attempts = attempts;
+        }
+
+        private WriteModel<Document> toRequest(String id) {
+            if(document == null) {
+                return new DeleteOneModel<>(Filters.eq("_id", id));
+            } else if(changes == null) {
+                return new ReplaceOneModel<>(MongoModelStore.expect(id, version), document, new ReplaceOptions().upsert(true));
+            }
+            return new UpdateOneModel<>(MongoModelStore.expect(id, version), MongoModelStore.toUpdate(document, changes, version + 1), new UpdateOptions().upsert(false));
+        }
+
+    }
+
+}
@@ -18,6 +18,7 @@ public class User implements Model {
     private @SerializedName("_id")      UUID id;
     private @SerializedName("username") String username;
     private @SerializedName("level_id") String levelId;
+    private @SerializedName("version")  Long version;
 
     public User(UUID id, String username, @Nullable String levelId) {
         this.id = id;
@@ -49,6 +50,16 @@ public class User implements Model {
         this.username = username;
     }
 
+    @Override
+    public long getVersion() {
+        return version == null ? 0 : version;
+    }
+
+    @Override
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Try to get the {@link Player} reference.
      *
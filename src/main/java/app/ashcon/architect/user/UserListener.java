@@ -1,10 +1,13 @@
 package app.ashcon.architect.user;
 
 import app.ashcon.architect.level.Level;
+import app.ashcon.architect.level.LevelIndex;
 import app.ashcon.architect.level.LevelLoader;
+import app.ashcon.architect.level.LevelPool;
 import app.ashcon.architect.level.LevelStore;
 import app.ashcon.architect.level.type.Role;
 import dagger.Reusable;
+import org.bukkit.ChatColor;
 import org.bukkit.Physical;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -27,33 +30,52 @@ public class UserListener implements Listener {
     private final UserStore userStore;
     private final LevelStore levelStore;
     private final LevelLoader levelLoader;
+    private final LevelIndex levelIndex;
+    private final LevelPool levelPool;
 
-    @Inject UserListener(UserStore userStore, LevelStore levelStore, LevelLoader levelLoader) {
+    @Inject UserListener(UserStore userStore, LevelStore levelStore, LevelLoader levelLoader, LevelIndex levelIndex, LevelPool levelPool) {
         this.userStore = userStore;
         this.levelStore = levelStore;
         this.levelLoader = levelLoader;
+        this.levelIndex = levelIndex;
+        this.levelPool = levelPool;
     }
 
     public Optional<Level> tryLevel(Physical physical) {
-        return levelStore.findCached(physical.getWorld().getName());
+        return levelIndex.find(physical);
     }
 
     @EventHandler(ignoreCancelled = true)
     void join(final PlayerJoinEvent event) {
         final Player player = event.getPlayer();
         final User user = userStore.login(player.getUniqueId().toString(), player.getName());
+        tryLevel(player).ifPresent(level -> level.getPolicy().track(player));
+        final Level fallback = levelStore.fallback();
         final Level level = levelStore.findCached(user.tryLevelId())
                                       .filter(lvl -> lvl.hasRole(Role.VIEWER, player))
-                                      .orElse(levelStore.fallback());
-        levelLoader.load(level);
-        player.teleport(level.getSpawnLocation());
+                                      .orElse(fallback);
+        if(!level.isLoaded()) {
+            player.teleport(fallback.getSpawnLocation());
+            player.sendMessage(ChatColor.YELLOW + "Loading " + level.getName() + "...");
+        }
+        levelLoader.loadAsync(level).whenComplete((world, error) -> {
+            if(!player.isOnline()) {
+                return;
+            } else if(error != null) {
+                player.sendMessage(ChatColor.RED + "Could not load " + level.getName() + ", try again later");
+            } else {
+                levelPool.acquire(level);
+                player.teleport(level.getSpawnLocation());
+            }
+        });
     }
 
     @EventHandler(ignoreCancelled = true)
     void quit(final PlayerQuitEvent event) {
         tryLevel(event.getPlayer()).ifPresent(level -> {
+            level.getPolicy().forget(event.getPlayer());
             if(level.needWorld().getPlayerCount() <= 1) {
-                levelLoader.unload(level);
+                levelPool.release(level);
             }
         });
     }
@@ -77,14 +99,16 @@ public class UserListener implements Listener {
 
     @EventHandler(ignoreCancelled = true)
     void changedWorld(final PlayerChangedWorldEvent event) {
+        tryLevel(event.getWorld()).ifPresent(level -> level.getPolicy().track(event.getPlayer()));
+        tryLevel(event.getFrom()).ifPresent(level -> level.getPolicy().forget(event.getPlayer()));
         userStore.find(event.getPlayer().getUniqueId().toString()).ifPresent(user -> {
             tryLevel(event.getWorld()).ifPresent(level -> {
-                user.setLevel(level);
-                userStore.update(user);
+                levelPool.acquire(level);
+                userStore.update(user, usr -> usr.setLevel(level));
             });
             tryLevel(event.getFrom()).ifPresent(level -> {
                 if(level.needWorld().getPlayerCount() <= 0) {
-                    levelLoader.unload(level);
+                    levelPool.release(level);
                 }
             });
         });
@@ -0,0 +1,109 @@
+package app.ashcon.architect.util;
+
+import org.apache.commons.io.FileUtils;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Utility to replace directories without leaving them half-written.
+ */
+public interface Folders {
+
+    /**
+     * Get the directory where a replacement for a directory is staged.
+     *
+     * @param dir The directory to replace.
+     * @return The staging directory, next to the directory.
+     */
+    static File staging(File dir) {
+        return new File(dir.getParentFile(), "." + dir.getName() + ".staging");
+    }
+
+    /**
+     * Get the directory where a directory is kept while it is being replaced.
+     *
+     * @param dir The directory to replace.
+     * @return The backup directory, next to the directory.
+     */
+    static File backup(File dir) {
+        return new File(dir.getParentFile(), "." + dir.getName() + ".old");
+    }
+
+    /**
+     * Replace a directory with its staging directory by renaming them,
+     * so the directory is never left with only some of its files.
+     *
+     * @param dir The directory to replace.
+     * @throws IOException If either directory could not be renamed.
+     */
+    static void swap(File dir) throws IOException {
+        final File backup = backup(dir);
+        FileUtils.deleteDirectory(backup);
+        if(dir.exists()) {
+            Files.move(dir.toPath(), backup.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(staging(dir).toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        FileUtils.deleteDirectory(backup);
+    }
+
+    /**
+     * Restore a directory from its backup, if the process stopped
+     * in the middle of a {@link #swap(File)}.
+     *
+     * @param dir The directory that was being replaced.
+     * @throws IOException If the backup could not be renamed.
+     */
+    static void recover(File dir) throws IOException {
+        final File backup = backup(dir);
+        if(!dir.exists() && backup.isDirectory()) {
+            Files.move(backup.toPath(), dir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Copy the files of a directory, except for session locks.
+     *
+     * Files that are unchanged since a previous copy are hard linked to it
+     * instead of copied, so the previous copy must never be written in place.
+     *
+     * @param source The directory to copy.
+     * @param destination The directory to create.
+     * @param base A previous copy of the directory, or null to copy every file.
+     * @throws IOException If a file could not be copied.
+     */
+    static void snapshot(File source, File destination, @Nullable File base) throws IOException {
+        final Path from = source.toPath();
+        final List<Path> paths;
+        try(Stream<Path> walk = Files.walk(from)) {
+            paths = walk.filter(Files::isRegularFile)
+                        .filter(path -> !path.getFileName().toString().equals("session.lock"))
+                        .collect(Collectors.toList());
+        }
+        for(Path path : paths) {
+            final Path relative = from.relativize(path);
+            final Path target = destination.toPath().resolve(relative);
+            Files.createDirectories(target.getParent());
+            if(base != null) {
+                final Path previous = base.toPath().resolve(relative);
+                if(Files.isRegularFile(previous)
+                   && Files.size(previous) == Files.size(path)
+                   && Files.getLastModifiedTime(previous).equals(Files.getLastModifiedTime(path))) {
+                    try {
+                        Files.createLink(target, previous);
+                        continue;
+                    } catch(IOException | UnsupportedOperationException error) {} // Fallback to copying
+                }
+            }
+            Files.copy(path, target, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+}
@@ -0,0 +1,31 @@
+package app.ashcon.architect.util;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Utility to compute content hashes of files.
+ */
+public interface Hashes {
+
+    /**
+     * The hash function used to address file contents.
+     */
+    HashFunction FUNCTION = Hashing.sha256();
+
+    /**
+     * Hash the contents of a file.
+     *
+     * @param file The file to hash.
+     * @return The hash as a hexadecimal string.
+     * @throws IOException If the file could not be read.
+     */
+    static String hash(File file) throws IOException {
+        return Files.asByteSource(file).hash(FUNCTION).toString();
+    }
+
+}
@@ -0,0 +1,141 @@
+package app.ashcon.architect.util;
+
+import javax.annotation.Nullable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Utility to pack Anvil region files, which are mostly empty
+ * sectors in void worlds, into only their occupied chunks.
+ *
+ * Chunk payloads are already compressed by Minecraft, so they are kept as-is.
+ * The packed format is a chunk count, then for each chunk its index, timestamp,
+ * payload length and payload, which includes its compression type.
+ */
+public interface Region {
+
+    /**
+     * The number of chunks in a region file.
+     */
+    int CHUNKS = 32 * 32;
+
+    /**
+     * The size of a sector in a region file.
+     */
+    int SECTOR = 4096;
+
+    /**
+     * Check whether a file is named like a region file.
+     *
+     * @param file The file to check.
+     * @return Whether the file is a region file.
+     */
+    static boolean isRegion(File file) {
+        return file.getName().endsWith(".mca");
+    }
+
+    /**
+     * Pack the occupied chunks of a region file.
+     *
+     * Chunks with locations or lengths that are out of bounds are skipped,
+     * the same as Minecraft would when reading them.
+     *
+     * @param file The region file to pack.
+     * @return The packed region, or null if the file is not a valid region file.
+     * @throws IOException If the file could not be read.
+     */
+    static @Nullable byte[] pack(File file) throws IOException {
+        try(RandomAccessFile region = new RandomAccessFile(file, "r")) {
+            final long length = region.length();
+            if(length < 2 * SECTOR) return null;
+            final int[] locations = new int[CHUNKS];
+            final int[] timestamps = new int[CHUNKS];
+            for(int i = 0; i < CHUNKS; i++) {
+                locations[i] = region.readInt();
+            }
+            for(int i = 0; i < CHUNKS; i++) {
+                timestamps[i] = region.readInt();
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            int count = 0;
+            for(int i = 0; i < CHUNKS; i++) {
+                final long offset = (long) (locations[i] >>> 8) * SECTOR;
+                final long sectors = locations[i] & 0xFF;
+                if(offset < 2 * SECTOR || sectors == 0 || offset + sectors * SECTOR > length) continue;
+                region.seek(offset);
+                final int size = region.readInt();
+                if(size <= 0 || size + 4 > sectors * SECTOR) continue;
+                final byte[] payload = new byte[size];
+                region.readFully(payload);
+                out.writeShort(i);
+                out.writeInt(timestamps[i]);
+                out.writeInt(size);
+                out.write(payload);
+                count++;
+            }
+            final ByteArrayOutputStream packed = new ByteArrayOutputStream(bytes.size() + 4);
+            new DataOutputStream(packed).writeInt(count);
+            bytes.writeTo(packed);
+            return packed.toByteArray();
+        }
+    }
+
+    /**
+     * Unpack a region into a region file, with its chunks in consecutive sectors.
+     *
+     * @param in The packed region.
+     * @param out The output stream of the region file.
+     * @throws IOException If the packed region is truncated or corrupt.
+     */
+    static void unpack(InputStream in, OutputStream out) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        final int count = data.readInt();
+        if(count < 0 || count > CHUNKS) {
+            throw new IOException("Region has an invalid number of chunks: " + count);
+        }
+        final int[] locations = new int[CHUNKS];
+        final int[] timestamps = new int[CHUNKS];
+        final byte[][] payloads = new byte[CHUNKS][];
+        for(int i = 0; i < count; i++) {
+            final int index = data.readUnsignedShort();
+            final int timestamp = data.readInt();
+            final int size = data.readInt();
+            if(index >= CHUNKS || size <= 0 || size + 4 > 0xFF * SECTOR || payloads[index] != null) {
+                throw new IOException("Region has an invalid chunk at index " + index);
+            }
+            timestamps[index] = timestamp;
+            payloads[index] = new byte[size];
+            data.readFully(payloads[index]);
+        }
+        int sector = 2;
+        for(int i = 0; i < CHUNKS; i++) {
+            if(payloads[i] == null) continue;
+            final int sectors = (payloads[i].length + 4 + SECTOR - 1) / SECTOR;
+            locations[i] = sector << 8 | sectors;
+            sector += sectors;
+        }
+        final DataOutputStream region = new DataOutputStream(out);
+        for(int location : locations) {
+            region.writeInt(location);
+        }
+        for(int timestamp : timestamps) {
+            region.writeInt(timestamp);
+        }
+        final byte[] padding = new byte[SECTOR];
+        for(byte[] payload : payloads) {
+            if(payload == null) continue;
+            region.writeInt(payload.length);
+            region.write(payload);
+            region.write(padding, 0, (SECTOR - (payload.length + 4) % SECTOR) % SECTOR);
+        }
+        region.flush();
+    }
+
+}
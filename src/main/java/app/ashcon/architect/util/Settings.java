@@ -0,0 +1,56 @@
+package app.ashcon.architect.util;
+
+/**
+ * Utility to fetch settings from environment variables or system properties.
+ *
+ * A setting such as "mongo.uri" can be set with the "MONGO_URI"
+ * environment variable or the "mongo.uri" system property.
+ */
+public interface Settings {
+
+    /**
+     * Fetch a setting as a string.
+     *
+     * @param key The key of the setting.
+     * @param def The default value if the setting is not set.
+     * @return The value of the setting.
+     */
+    static String fetch(String key, String def) {
+        String env = System.getenv(key.replaceAll("\\.", "_").toUpperCase());
+        if(env == null) {
+            env = System.getProperty(key.toLowerCase(), def);
+        }
+        return env;
+    }
+
+    /**
+     * Fetch a setting as an integer.
+     *
+     * @param key The key of the setting.
+     * @param def The default value if the setting is not set or malformed.
+     * @return The value of the setting.
+     */
+    static int fetchInt(String key, int def) {
+        try {
+            return Integer.parseInt(fetch(key, Integer.toString(def)));
+        } catch(NumberFormatException malformed) {
+            return def;
+        }
+    }
+
+    /**
+     * Fetch a setting as a long.
+     *
+     * @param key The key of the setting.
+     * @param def The default value if the setting is not set or malformed.
+     * @return The value of the setting.
+     */
+    static long fetchLong(String key, long def) {
+        try {
+            return Long.parseLong(fetch(key, Long.toString(def)));
+        } catch(NumberFormatException malformed) {
+            return def;
+        }
+    }
+
+}
@@ -2,77 +2,48 @@ package app.ashcon.architect.util;
 
 import org.apache.commons.io.FileUtils;
 
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 /**
- * Utility to compress and decompress zip files.
+ * Utility to decompress zip files, which is how worlds
+ * were stored before they were split into separate files.
  */
 public interface Zip {
 
-    /**
-     * Compress a directory into an output stream.
-     *
-     * @param dir The directory to compress.
-     * @param out The output stream to put the files.
-     * @throws IOException
-     */
-    static void compress(File dir, ZipOutputStream out) throws IOException {
-        File[] files = dir.listFiles();
-        if(files == null || files.length == 0) {
-            return;
-        }
-        for(File file : files) {
-            if(file.isDirectory()) {
-                compress(file, out);
-                continue;
-            }
-            int size;
-            byte[] buffer = new byte[2048];
-            FileInputStream in = new FileInputStream(file);
-            out.putNextEntry(new ZipEntry(file.toString()));
-            while((size = in.read(buffer)) > 0) {
-                out.write(buffer, 0, size);
-            }
-            out.closeEntry();
-            in.close();
-        }
-    }
-
     /**
      * Decompress a zipped input stream into a directory.
      *
+     * Entries were named by their full path when they were compressed,
+     * so only the part after the folder named {@code root} is kept.
+     *
      * @param dir The directory to put the files.
+     * @param root The name of the folder that was compressed.
      * @param in The zipped input stream.
-     * @throws IOException
+     * @throws IOException If the stream is truncated or corrupt.
      */
-    static void decompress(File dir, ZipInputStream in) throws IOException {
+    static void decompress(File dir, String root, ZipInputStream in) throws IOException {
         FileUtils.deleteDirectory(dir);
+        dir.mkdirs();
         ZipEntry entry;
         while((entry = in.getNextEntry()) != null) {
-            final String name = dir.getParent() + File.separator + entry.getName();
-            if(entry.isDirectory()) {
-                continue;
-            } else {
-                new File(name).getParentFile().mkdirs();
-            }
-            int size;
-            byte[] buffer = new byte[2048];
-            FileOutputStream file = new FileOutputStream(name);
-            BufferedOutputStream out = new BufferedOutputStream(file, buffer.length);
-            while((size = in.read(buffer, 0, buffer.length)) != -1) {
-                out.write(buffer, 0, size);
+            if(entry.isDirectory()) continue;
+            final Path path = Paths.get(entry.getName()).normalize();
+            for(int i = 0; i < path.getNameCount() - 1; i++) {
+                if(path.getName(i).toString().equals(root)) {
+                    final Path file = dir.toPath().resolve(path.subpath(i + 1, path.getNameCount()));
+                    Files.createDirectories(file.getParent());
+                    Files.copy(in, file, StandardCopyOption.REPLACE_EXISTING);
+                    break;
+                }
             }
-            out.flush();
-            out.close();
         }
-        in.close();
     }
 
 }
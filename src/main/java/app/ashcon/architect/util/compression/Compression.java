@@ -0,0 +1,52 @@
+package app.ashcon.architect.util.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Represents a way to compress blobs of world files.
+ *
+ * Each compression is identified by a byte in the blob header,
+ * so it must never change once blobs have been written with it.
+ *
+ * @see Compressions
+ */
+public interface Compression {
+
+    /**
+     * Get the unique identifier written in the blob header.
+     *
+     * @return The identifier.
+     */
+    byte getId();
+
+    /**
+     * Get the unique name used to choose the compression in settings.
+     *
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Wrap an output stream so everything written to it is compressed.
+     *
+     * Closing the returned stream must finish the compression,
+     * then close the underlying stream.
+     *
+     * @param out The underlying output stream.
+     * @return The compressing output stream.
+     * @throws IOException If the stream could not be wrapped.
+     */
+    OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Wrap an input stream so everything read from it is decompressed.
+     *
+     * @param in The underlying input stream.
+     * @return The decompressing input stream.
+     * @throws IOException If the stream could not be wrapped.
+     */
+    InputStream decompress(InputStream in) throws IOException;
+
+}
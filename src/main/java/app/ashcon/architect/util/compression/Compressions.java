@@ -0,0 +1,107 @@
+package app.ashcon.architect.util.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+
+/**
+ * Registry of every {@link Compression}, which writes and detects
+ * the header that identifies the compression of a blob.
+ *
+ * The header is a magic number, a version and the compression identifier.
+ * Blobs without a header were written before compressions were pluggable.
+ */
+public final class Compressions {
+
+    private static final byte[] MAGIC = {'A', 'R', 'C'};
+    private static final byte VERSION = 1;
+    private static final Map<Byte, Compression> BY_ID = new ConcurrentHashMap<>();
+    private static final Map<String, Compression> BY_NAME = new ConcurrentHashMap<>();
+
+    public static final Compression NONE = register(new NoCompression());
+    public static final Compression DEFLATE = register(new DeflateCompression((byte) 1, "deflate", Deflater.DEFAULT_COMPRESSION));
+    public static final Compression DEFLATE_BEST = register(new DeflateCompression((byte) 2, "deflate-best", Deflater.BEST_COMPRESSION));
+    public static final Compression LZ4 = register(new Lz4Compression());
+    public static final Compression DEFLATE_FAST = register(new DeflateCompression((byte) 4, "deflate-fast", Deflater.BEST_SPEED));
+
+    private Compressions() {}
+
+    /**
+     * Register a compression so it can be written and detected.
+     *
+     * @param compression The compression to register.
+     * @return The same compression.
+     * @throws IllegalArgumentException If its identifier or name is already registered.
+     */
+    public static Compression register(Compression compression) throws IllegalArgumentException {
+        if(BY_ID.putIfAbsent(compression.getId(), compression) != null) {
+            throw new IllegalArgumentException("Compression with id " + compression.getId() + " is already registered");
+        } else if(BY_NAME.putIfAbsent(compression.getName(), compression) != null) {
+            BY_ID.remove(compression.getId());
+            throw new IllegalArgumentException("Compression named '" + compression.getName() + "' is already registered");
+        }
+        return compression;
+    }
+
+    /**
+     * Find a registered compression by its name.
+     *
+     * @param name The name of the compression.
+     * @return The compression, or empty if none has that name.
+     */
+    public static Optional<Compression> find(String name) {
+        return Optional.ofNullable(BY_NAME.get(name));
+    }
+
+    /**
+     * Write the header of a blob, then wrap the stream with its compression.
+     *
+     * @param out The output stream of the blob.
+     * @param compression The compression of the blob.
+     * @return The compressing output stream.
+     * @throws IOException If the header could not be written.
+     */
+    public static OutputStream write(OutputStream out, Compression compression) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compression.getId());
+        return compression.compress(out);
+    }
+
+    /**
+     * Detect the compression of a blob from its header, then wrap the stream with it.
+     *
+     * @param in The input stream of the blob.
+     * @param legacy The compression of the blob if it has no header.
+     * @return The decompressing input stream.
+     * @throws IOException If the header has an unknown version or compression.
+     */
+    public static InputStream read(InputStream in, Compression legacy) throws IOException {
+        final int size = MAGIC.length + 2;
+        final PushbackInputStream stream = new PushbackInputStream(in, size);
+        final byte[] header = new byte[size];
+        int read = 0;
+        while(read < size) {
+            final int count = stream.read(header, read, size - read);
+            if(count == -1) break;
+            read += count;
+        }
+        if(read < size || header[0] != MAGIC[0] || header[1] != MAGIC[1] || header[2] != MAGIC[2]) {
+            stream.unread(header, 0, read);
+            return legacy.decompress(stream);
+        } else if(header[MAGIC.length] != VERSION) {
+            throw new IOException("Blob has an unsupported header version " + header[MAGIC.length]);
+        }
+        final Compression compression = BY_ID.get(header[MAGIC.length + 1]);
+        if(compression == null) {
+            throw new IOException("Blob has an unknown compression " + header[MAGIC.length + 1]);
+        }
+        return compression.decompress(stream);
+    }
+
+}
@@ -0,0 +1,55 @@
+package app.ashcon.architect.util.compression;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses blobs with zlib at a fixed level.
+ *
+ * Each thread reuses its own deflater and inflater,
+ * so concurrent transfers do not allocate them for every blob.
+ */
+public class DeflateCompression implements Compression {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+
+    private final byte id;
+    private final String name;
+    private final ThreadLocal<Deflater> deflater;
+
+    public DeflateCompression(byte id, String name, int level) {
+        this.id = id;
+        this.name = name;
+        this.deflater = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        final Deflater deflater = this.deflater.get();
+        deflater.reset();
+        return new DeflaterOutputStream(out, deflater, BUFFER_SIZE);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        final Inflater inflater = INFLATER.get();
+        inflater.reset();
+        return new InflaterInputStream(in, inflater, BUFFER_SIZE);
+    }
+
+}
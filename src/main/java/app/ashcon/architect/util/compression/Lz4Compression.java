@@ -0,0 +1,36 @@
+package app.ashcon.architect.util.compression;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Compresses blobs with LZ4 frames, which trades a lower ratio
+ * than deflate for much faster compression and decompression.
+ */
+public class Lz4Compression implements Compression {
+
+    @Override
+    public byte getId() {
+        return 3;
+    }
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new LZ4FrameOutputStream(out);
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new LZ4FrameInputStream(in);
+    }
+
+}
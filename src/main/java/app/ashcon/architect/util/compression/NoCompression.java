@@ -0,0 +1,31 @@
+package app.ashcon.architect.util.compression;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Stores blobs as-is, for files that are already compressed.
+ */
+public class NoCompression implements Compression {
+
+    @Override
+    public byte getId() {
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return "none";
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        return out;
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) {
+        return in;
+    }
+
+}
@@ -0,0 +1,51 @@
+package app.ashcon.architect.util.conversion;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+
+/**
+ * Converts between {@link Document}s and {@link Object}s using
+ * a {@link Codec} from a registry, without an intermediate format.
+ *
+ * @param <T> The type of {@link Object} to convert.
+ */
+public class CodecConversion<T> implements Conversion<T> {
+
+    private final CodecRegistry registry;
+    private final Codec<T> codec;
+
+    public CodecConversion(Class<T> clazz, CodecRegistry registry) {
+        this.registry = registry;
+        this.codec = registry.get(clazz);
+    }
+
+    @Override
+    public Document toDocument(T object) {
+        final BsonDocument bson = new BsonDocument();
+        codec.encode(new BsonDocumentWriter(bson), object, EncoderContext.builder().build());
+        final Document document = new Document();
+        document.putAll(bson);
+        return document;
+    }
+
+    @Override
+    public T toObject(Document document) {
+        return toObject(document.toBsonDocument(Document.class, registry));
+    }
+
+    @Override
+    public T toObject(BsonDocument document) {
+        if(document instanceof RawBsonDocument) {
+            return ((RawBsonDocument) document).decode(codec);
+        }
+        return codec.decode(new BsonDocumentReader(document), DecoderContext.builder().build());
+    }
+
+}
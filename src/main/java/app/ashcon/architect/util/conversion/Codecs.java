@@ -0,0 +1,84 @@
+package app.ashcon.architect.util.conversion;
+
+import com.mongodb.MongoClientSettings;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Utility to register and share helpers between {@link org.bson.codecs.Codec}s.
+ */
+public interface Codecs {
+
+    /**
+     * Create a codec registry that can encode and decode models,
+     * in addition to the default types of the driver.
+     *
+     * @return The codec registry.
+     */
+    static CodecRegistry registry() {
+        final VectorCodec vector = new VectorCodec();
+        return CodecRegistries.fromRegistries(
+            CodecRegistries.fromCodecs(
+                vector,
+                new LevelCodec(vector, new FlagSetCodec(), new RoleMapCodec()),
+                new UserCodec()
+            ),
+            MongoClientSettings.getDefaultCodecRegistry()
+        );
+    }
+
+    /**
+     * Read the current value as a double, even if it was stored as an integer.
+     *
+     * @param reader The reader.
+     * @return The number.
+     */
+    static double readNumber(BsonReader reader) {
+        switch(reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            default:
+                return reader.readDouble();
+        }
+    }
+
+    /**
+     * Read the current value as a string, or null if it is null.
+     *
+     * @param reader The reader.
+     * @return The string or null.
+     */
+    static @Nullable String readString(BsonReader reader) {
+        if(reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    /**
+     * Read the current value as an enum constant, or null if it is not recognized.
+     *
+     * @param reader The reader.
+     * @param type The enum class.
+     * @return The enum constant or null.
+     */
+    static @Nullable <E extends Enum<E>> E readEnum(BsonReader reader, Class<E> type) {
+        final String name = readString(reader);
+        if(name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name);
+        } catch(IllegalArgumentException unknown) {
+            return null;
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package app.ashcon.architect.util.conversion;
 
+import org.bson.BsonDocument;
 import org.bson.Document;
 
 /**
@@ -25,4 +26,12 @@ public interface Conversion<T> {
      */
     T toObject(Document document);
 
+    /**
+     * Convert a BSON document, such as a raw document from the wire, into a Java object.
+     *
+     * @param document The BSON document.
+     * @return The plain Java object.
+     */
+    T toObject(BsonDocument document);
+
 }
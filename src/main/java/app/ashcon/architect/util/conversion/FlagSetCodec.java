@@ -0,0 +1,47 @@
+package app.ashcon.architect.util.conversion;
+
+import app.ashcon.architect.level.type.Flag;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.EnumSet;
+
+/**
+ * Converts an {@link EnumSet} of {@link Flag}s to and from an array of names.
+ */
+public class FlagSetCodec implements Codec<EnumSet<Flag>> {
+
+    @Override
+    public void encode(BsonWriter writer, EnumSet<Flag> flags, EncoderContext context) {
+        writer.writeStartArray();
+        for(Flag flag : flags) {
+            writer.writeString(flag.name());
+        }
+        writer.writeEndArray();
+    }
+
+    @Override
+    public EnumSet<Flag> decode(BsonReader reader, DecoderContext context) {
+        final EnumSet<Flag> flags = EnumSet.noneOf(Flag.class);
+        reader.readStartArray();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final Flag flag = Codecs.readEnum(reader, Flag.class);
+            if(flag != null) {
+                flags.add(flag);
+            }
+        }
+        reader.readEndArray();
+        return flags;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Class<EnumSet<Flag>> getEncoderClass() {
+        return (Class<EnumSet<Flag>>) (Class<?>) EnumSet.class;
+    }
+
+}
@@ -0,0 +1,125 @@
+package app.ashcon.architect.util.conversion;
+
+import app.ashcon.architect.level.Level;
+import app.ashcon.architect.level.type.Flag;
+import app.ashcon.architect.level.type.Role;
+import app.ashcon.architect.level.type.Status;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bukkit.util.Vector;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Converts a {@link Level} to and from its stored document.
+ *
+ * Fields that are false or empty are left out, and decoded
+ * levels start tracking changes from their stored state.
+ *
+ * The IDs of players with roles are also stored as an array of members,
+ * which can be indexed unlike the keys of the roles, and is never decoded.
+ */
+public class LevelCodec implements Codec<Level> {
+
+    private final Codec<Vector> vectorCodec;
+    private final Codec<EnumSet<Flag>> flagsCodec;
+    private final Codec<Map<String, Role>> rolesCodec;
+
+    public LevelCodec(Codec<Vector> vectorCodec, Codec<EnumSet<Flag>> flagsCodec, Codec<Map<String, Role>> rolesCodec) {
+        this.vectorCodec = vectorCodec;
+        this.flagsCodec = flagsCodec;
+        this.rolesCodec = rolesCodec;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, Level level, EncoderContext context) {
+        writer.writeStartDocument();
+        writer.writeString("_id", level.getId());
+        writer.writeString("name", level.getName());
+        writer.writeString("status", level.getStatus().name());
+        if(!level.getRoles().isEmpty()) {
+            writer.writeName("roles");
+            context.encodeWithChildContext(rolesCodec, writer, level.getRoles());
+            writer.writeStartArray("members");
+            for(String member : level.getRoles().keySet()) {
+                writer.writeString(member);
+            }
+            writer.writeEndArray();
+        }
+        writer.writeName("spawn");
+        context.encodeWithChildContext(vectorCodec, writer, level.getSpawn());
+        writer.writeName("flags");
+        context.encodeWithChildContext(flagsCodec, writer, level.getFlags());
+        if(level.isLocked()) {
+            writer.writeBoolean("locked", true);
+        }
+        if(level.isDefault()) {
+            writer.writeBoolean("default", true);
+        }
+        if(level.isTemplate()) {
+            writer.writeBoolean("template", true);
+        }
+        if(level.getSource() != null) {
+            writer.writeString("source", level.getSource());
+        }
+        if(level.getVersion() > 0) {
+            writer.writeInt64("version", level.getVersion());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Level decode(BsonReader reader, DecoderContext context) {
+        String id = null;
+        String name = null;
+        Status status = null;
+        Map<String, Role> roles = null;
+        Vector spawn = null;
+        EnumSet<Flag> flags = null;
+        Boolean locked = null;
+        Boolean def = null;
+        Boolean template = null;
+        String source = null;
+        long version = 0;
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String field = reader.readName();
+            if(reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+            switch(field) {
+                case "_id":     id = reader.readString(); break;
+                case "name":    name = reader.readString(); break;
+                case "status":  status = Codecs.readEnum(reader, Status.class); break;
+                case "roles":   roles = rolesCodec.decode(reader, context); break;
+                case "spawn":   spawn = vectorCodec.decode(reader, context); break;
+                case "flags":   flags = flagsCodec.decode(reader, context); break;
+                case "locked":  locked = reader.readBoolean(); break;
+                case "default": def = reader.readBoolean(); break;
+                case "template": template = reader.readBoolean(); break;
+                case "source":  source = reader.readString(); break;
+                case "version": version = (long) Codecs.readNumber(reader); break;
+                default:        reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        final Level level = new Level(id, name, status, roles, spawn, flags, locked, def);
+        level.setTemplate(template);
+        level.setSource(source);
+        level.setVersion(version);
+        level.popChanges();
+        return level;
+    }
+
+    @Override
+    public Class<Level> getEncoderClass() {
+        return Level.class;
+    }
+
+}
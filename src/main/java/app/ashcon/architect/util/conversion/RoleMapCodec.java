@@ -0,0 +1,49 @@
+package app.ashcon.architect.util.conversion;
+
+import app.ashcon.architect.level.type.Role;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts a {@link Map} of player IDs to {@link Role}s to and from a document.
+ */
+public class RoleMapCodec implements Codec<Map<String, Role>> {
+
+    @Override
+    public void encode(BsonWriter writer, Map<String, Role> roles, EncoderContext context) {
+        writer.writeStartDocument();
+        for(Map.Entry<String, Role> entry : roles.entrySet()) {
+            writer.writeString(entry.getKey(), entry.getValue().name());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Map<String, Role> decode(BsonReader reader, DecoderContext context) {
+        final Map<String, Role> roles = new HashMap<>();
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            final String playerId = reader.readName();
+            final Role role = Codecs.readEnum(reader, Role.class);
+            if(role != null) {
+                roles.put(playerId, role);
+            }
+        }
+        reader.readEndDocument();
+        return roles;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Class<Map<String, Role>> getEncoderClass() {
+        return (Class<Map<String, Role>>) (Class<?>) Map.class;
+    }
+
+}
@@ -0,0 +1,59 @@
+package app.ashcon.architect.util.conversion;
+
+import app.ashcon.architect.user.User;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.UUID;
+
+/**
+ * Converts a {@link User} to and from its stored document.
+ */
+public class UserCodec implements Codec<User> {
+
+    @Override
+    public void encode(BsonWriter writer, User user, EncoderContext context) {
+        writer.writeStartDocument();
+        writer.writeString("_id", user.getId());
+        writer.writeString("username", user.getName());
+        if(user.tryLevelId() != null) {
+            writer.writeString("level_id", user.tryLevelId());
+        }
+        if(user.getVersion() > 0) {
+            writer.writeInt64("version", user.getVersion());
+        }
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public User decode(BsonReader reader, DecoderContext context) {
+        UUID id = null;
+        String username = null;
+        String levelId = null;
+        long version = 0;
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "_id":      id = UUID.fromString(reader.readString()); break;
+                case "username": username = Codecs.readString(reader); break;
+                case "level_id": levelId = Codecs.readString(reader); break;
+                case "version":  version = (long) Codecs.readNumber(reader); break;
+                default:         reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        final User user = new User(id, username, levelId);
+        user.setVersion(version);
+        return user;
+    }
+
+    @Override
+    public Class<User> getEncoderClass() {
+        return User.class;
+    }
+
+}
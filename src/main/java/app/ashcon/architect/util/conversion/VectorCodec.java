@@ -0,0 +1,46 @@
+package app.ashcon.architect.util.conversion;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bukkit.util.Vector;
+
+/**
+ * Converts a {@link Vector} to and from a {x, y, z} document.
+ */
+public class VectorCodec implements Codec<Vector> {
+
+    @Override
+    public void encode(BsonWriter writer, Vector vector, EncoderContext context) {
+        writer.writeStartDocument();
+        writer.writeDouble("x", vector.getX());
+        writer.writeDouble("y", vector.getY());
+        writer.writeDouble("z", vector.getZ());
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public Vector decode(BsonReader reader, DecoderContext context) {
+        double x = 0, y = 0, z = 0;
+        reader.readStartDocument();
+        while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch(reader.readName()) {
+                case "x": x = Codecs.readNumber(reader); break;
+                case "y": y = Codecs.readNumber(reader); break;
+                case "z": z = Codecs.readNumber(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return new Vector(x, y, z);
+    }
+
+    @Override
+    public Class<Vector> getEncoderClass() {
+        return Vector.class;
+    }
+
+}